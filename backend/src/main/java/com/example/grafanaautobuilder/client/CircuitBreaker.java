@@ -0,0 +1,75 @@
+package com.example.grafanaautobuilder.client;
+
+import org.springframework.web.client.RestClientException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code failureThreshold} failed calls in a row the circuit opens and
+ * calls fail fast with {@link OpenException} for {@code openSeconds}; then a single trial call is let through and
+ * its outcome closes or re-opens the circuit. A threshold <= 0 disables it.
+ */
+final class CircuitBreaker {
+    // Ordered so the ordinal is the grafana.client.circuit.state gauge value
+    enum State { CLOSED, HALF_OPEN, OPEN }
+
+    /** Thrown instead of calling a service whose circuit is open. */
+    static class OpenException extends RestClientException {
+        OpenException(String message) {
+            super(message);
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(String name, int failureThreshold, int openSeconds) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.SECONDS.toNanos(Math.max(0, openSeconds));
+    }
+
+    /** Call before each attempt; throws while the circuit is open. */
+    synchronized void acquire() {
+        if (failureThreshold <= 0 || state == State.CLOSED) return;
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                throw new OpenException(name + " circuit is open after " + failures + " consecutive failures");
+            }
+            state = State.HALF_OPEN;
+        }
+        // Half-open: one trial call at a time
+        if (trialInFlight) throw new OpenException(name + " circuit is half-open, a trial call is in flight");
+        trialInFlight = true;
+    }
+
+    synchronized void onSuccess() {
+        failures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        trialInFlight = false;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || failures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /** Ends a call without an outcome (e.g. cancelled), so a half-open circuit can run another trial. */
+    synchronized void release() {
+        trialInFlight = false;
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -1,20 +1,97 @@
 package com.example.grafanaautobuilder.client;
 
 import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.example.grafanaautobuilder.service.grafana.DashboardJsonWriter;
+import com.example.grafanaautobuilder.service.grafana.GrafanaDashboard;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 @Component
 public class GrafanaClient {
+    private static final Logger log = LoggerFactory.getLogger(GrafanaClient.class);
+
+    // The request body stream belongs to the HTTP client, so the generator must not close it
+    private static final JsonFactory JSON = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+
+    // URLs and read-only headers built once from grafana.url and grafana.apiKey
+    private record Endpoint(String dashboardsUrl, String datasourceUrl, HttpHeaders authHeaders,
+                            HttpHeaders jsonHeaders, HttpHeaders gzipJsonHeaders) {}
+
+    /** Outcome of one dashboard of a batch: Grafana's response, or the error that ended its attempts. */
+    public record Publication(GrafanaDashboard dashboard, ResponseEntity<String> response, Throwable error) {
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
     private final RestTemplate restTemplate;
+    private final WebClient webClient;
     private final GrafanaProperties grafanaProperties;
+    private final MeterRegistry meterRegistry;
+    private final CircuitBreaker circuitBreaker;
+    private final TokenBucket rateLimit;
+    private volatile Endpoint endpoint;
 
-    public GrafanaClient(RestTemplate restTemplate, GrafanaProperties grafanaProperties) {
+    public GrafanaClient(RestTemplate restTemplate, WebClient grafanaWebClient, GrafanaProperties grafanaProperties,
+                         MeterRegistry meterRegistry) {
         this.restTemplate = restTemplate;
+        this.webClient = grafanaWebClient;
         this.grafanaProperties = grafanaProperties;
+        this.meterRegistry = meterRegistry;
+        GrafanaProperties.Http http = grafanaProperties.getHttp();
+        this.circuitBreaker =
+                new CircuitBreaker("Grafana", http.getCircuitFailureThreshold(), http.getCircuitOpenSeconds());
+        this.rateLimit = new TokenBucket(http.getRateLimitPerSecond(), http.getRateLimitBurst());
+
+        Gauge.builder("grafana.client.circuit.state", circuitBreaker, cb -> cb.state().ordinal())
+                .description("0 = closed, 1 = half-open, 2 = open")
+                .register(meterRegistry);
     }
 
     // Validates grafana.url and grafana.apiKey (throws IllegalStateException if missing).
@@ -22,25 +99,343 @@ public class GrafanaClient {
 // Sets headers:
 // Content-Type: application/json
 // Authorization: Bearer {apiKey}
-// Sends POST with the provided dashboardPayload.
-// Returns ResponseEntity<String> from restTemplate.exchange(...).
+// Streams {"dashboard": ..., "overwrite": true} into the request body (no intermediate map tree or byte[] copy),
+// gzip-compressed when grafana.http.gzipRequests is set.
+// Retries 429/5xx/I/O failures (the payload is idempotent with overwrite=true) behind the circuit breaker.
+// Returns the response status, headers and body as a String.
+
+    public ResponseEntity<String> createOrUpdateDashboard(GrafanaDashboard dashboard) {
+        Endpoint ep = endpoint();
+        boolean gzip = grafanaProperties.getHttp().isGzipRequests();
+
+        RequestCallback body = request -> {
+            request.getHeaders().putAll(gzip ? ep.gzipJsonHeaders() : ep.jsonHeaders());
+            if (request instanceof StreamingHttpOutputMessage streaming) {
+                streaming.setBody(out -> writePayload(out, dashboard, gzip));
+            } else {
+                writePayload(request.getBody(), dashboard, gzip);
+            }
+        };
+        return call("dashboard", () -> restTemplate.execute(
+                ep.dashboardsUrl(), HttpMethod.POST, body, GrafanaClient::toStringEntity));
+    }
+
+    /**
+     * Non-blocking {@link #createOrUpdateDashboard}: same payload, retries, circuit breaker and rate limit, but no
+     * thread waits on Grafana. Errors are the same Spring exceptions the blocking call throws.
+     */
+    public Mono<ResponseEntity<String>> createOrUpdateDashboardReactive(GrafanaDashboard dashboard) {
+        return Mono.defer(() -> {
+            Endpoint ep = endpoint();
+            boolean gzip = grafanaProperties.getHttp().isGzipRequests();
+            BodyInserter<GrafanaDashboard, ReactiveHttpOutputMessage> body =
+                    (message, context) -> message.writeWith(
+                            Mono.fromCallable(() -> payloadBuffer(message.bufferFactory(), dashboard, gzip)));
+            return callReactive("dashboard", () -> webClient.post()
+                    .uri(ep.dashboardsUrl())
+                    .headers(h -> h.putAll(gzip ? ep.gzipJsonHeaders() : ep.jsonHeaders()))
+                    .body(body)
+                    .exchangeToMono(GrafanaClient::toStringEntityOrError));
+        });
+    }
+
+    public CompletableFuture<ResponseEntity<String>> createOrUpdateDashboardAsync(GrafanaDashboard dashboard) {
+        return createOrUpdateDashboardReactive(dashboard).toFuture();
+    }
+
+    /**
+     * Publishes the dashboards concurrently, at most {@code grafana.http.maxInFlight} at a time and within the
+     * rate limit. A failed dashboard does not stop the others; results arrive in completion order.
+     */
+    public Flux<Publication> publishAll(Collection<GrafanaDashboard> dashboards) {
+        int maxInFlight = Math.max(1, grafanaProperties.getHttp().getMaxInFlight());
+        return Flux.fromIterable(dashboards)
+                .flatMap(d -> createOrUpdateDashboardReactive(d)
+                        .map(response -> new Publication(d, response, null))
+                        .onErrorResume(e -> Mono.just(new Publication(d, null, e))), maxInFlight);
+    }
+
+    public CompletableFuture<List<Publication>> publishAllAsync(Collection<GrafanaDashboard> dashboards) {
+        return publishAll(dashboards).collectList().toFuture();
+    }
+
+    // The payload in one pooled buffer; WebClient has no streaming body like StreamingHttpOutputMessage
+    private static DataBuffer payloadBuffer(DataBufferFactory factory, GrafanaDashboard dashboard, boolean gzip)
+            throws IOException {
+        DataBuffer buffer = factory.allocateBuffer(8192);
+        boolean written = false;
+        try (OutputStream out = buffer.asOutputStream()) {
+            writePayload(out, dashboard, gzip);
+            written = true;
+            return buffer;
+        } finally {
+            if (!written) DataBufferUtils.release(buffer);
+        }
+    }
+
+    private static void writePayload(OutputStream out, GrafanaDashboard dashboard, boolean gzip) throws IOException {
+        if (!gzip) {
+            try (JsonGenerator gen = JSON.createGenerator(out)) {
+                DashboardJsonWriter.writePayload(gen, dashboard, true);
+            }
+            return;
+        }
+        // Closing the gzip stream writes its trailer and frees the deflater but leaves the body stream open
+        try (OutputStream zipped = new GZIPOutputStream(StreamUtils.nonClosing(out), 8192);
+             JsonGenerator gen = JSON.createGenerator(zipped)) {
+            DashboardJsonWriter.writePayload(gen, dashboard, true);
+        }
+    }
+
+    private static ResponseEntity<String> toStringEntity(ClientHttpResponse response) throws IOException {
+        MediaType contentType = response.getHeaders().getContentType();
+        Charset charset = contentType != null && contentType.getCharset() != null
+                ? contentType.getCharset() : StandardCharsets.UTF_8;
+        String text = StreamUtils.copyToString(response.getBody(), charset);
+        return ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders()).body(text);
+    }
+
+    // Error statuses become the exceptions RestTemplate would throw, so both paths are handled alike
+    private static Mono<ResponseEntity<String>> toStringEntityOrError(ClientResponse response) {
+        return response.bodyToMono(String.class).defaultIfEmpty("").handle((text, sink) -> {
+            HttpStatusCode status = response.statusCode();
+            HttpHeaders headers = response.headers().asHttpHeaders();
+            if (!status.isError()) {
+                sink.next(ResponseEntity.status(status).headers(headers).body(text));
+                return;
+            }
+            HttpStatus known = HttpStatus.resolve(status.value());
+            String reason = known != null ? known.getReasonPhrase() : "";
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            sink.error(status.is4xxClientError()
+                    ? HttpClientErrorException.create(status, reason, headers, bytes, StandardCharsets.UTF_8)
+                    : HttpServerErrorException.create(status, reason, headers, bytes, StandardCharsets.UTF_8));
+        });
+    }
+
+    // GET {grafana.url}/api/datasources/uid/{uid}; secure fields such as the password are never included
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getDatasource(String uid) {
+        Endpoint ep = endpoint();
+        HttpEntity<Void> entity = new HttpEntity<>(ep.authHeaders());
+        return call("datasource", () ->
+                restTemplate.exchange(ep.datasourceUrl(), HttpMethod.GET, entity, Map.class, uid).getBody());
+    }
 
-    public ResponseEntity<String> createOrUpdateDashboard(Map<String, Object> dashboardPayload) {
+    /**
+     * Runs one Grafana exchange with retries and the circuit breaker, timed as {@code grafana.client.requests}.
+     * Only 429, 5xx and I/O failures (including timeouts) are retried or count against the circuit.
+     */
+    private <T> T call(String operation, Supplier<T> exchange) {
+        GrafanaProperties.Http http = grafanaProperties.getHttp();
+        int maxAttempts = Math.max(1, http.getMaxAttempts());
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            for (int attempt = 1; ; attempt++) {
+                awaitRateLimit();
+                circuitBreaker.acquire();
+                try {
+                    T result = exchange.get();
+                    circuitBreaker.onSuccess();
+                    outcome = "success";
+                    return result;
+                } catch (RuntimeException raw) {
+                    RuntimeException e = (RuntimeException) translate(raw);
+                    outcome = outcome(e);
+                    if (!isTransient(e)) {
+                        // Grafana answered; a rejected request says nothing about its health
+                        circuitBreaker.onSuccess();
+                        throw e;
+                    }
+                    circuitBreaker.onFailure();
+                    if (attempt >= maxAttempts) throw e;
+                    long delay = backoffMillis(http, attempt, e);
+                    if (delay < 0) {
+                        log.warn("Grafana {} call failed and asked to retry later than {} ms, not retrying: {}",
+                                operation, http.getMaxRetryBackoffMs(), e.getMessage());
+                        throw e;
+                    }
+                    log.warn("Grafana {} call failed (attempt {}/{}), retrying in {} ms: {}",
+                            operation, attempt, maxAttempts, delay, e.getMessage());
+                    meterRegistry.counter("grafana.client.retries", "operation", operation).increment();
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                }
+            }
+        } catch (CircuitBreaker.OpenException e) {
+            outcome = "rejected";
+            throw e;
+        } finally {
+            stopTimer(sample, operation, outcome);
+        }
+    }
+
+    private void awaitRateLimit() {
+        long wait = rateLimit.reserve();
+        if (wait <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted while waiting for the Grafana rate limit");
+        }
+    }
+
+    /** {@link #call} for the non-blocking client: waits and backoffs are timers, not sleeping threads. */
+    private <T> Mono<T> callReactive(String operation, Supplier<Mono<T>> exchange) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return attempt(operation, exchange, 1)
+                    .doOnSuccess(r -> stopTimer(sample, operation, "success"))
+                    .doOnError(e -> stopTimer(sample, operation,
+                            e instanceof CircuitBreaker.OpenException ? "rejected" : outcome(e)))
+                    .doOnCancel(() -> stopTimer(sample, operation, "cancelled"));
+        });
+    }
+
+    private <T> Mono<T> attempt(String operation, Supplier<Mono<T>> exchange, int attempt) {
+        GrafanaProperties.Http http = grafanaProperties.getHttp();
+        int maxAttempts = Math.max(1, http.getMaxAttempts());
+        Mono<T> once = Mono.defer(() -> {
+                    circuitBreaker.acquire();
+                    return exchange.get()
+                            .doOnSuccess(r -> circuitBreaker.onSuccess())
+                            .doOnCancel(circuitBreaker::release);
+                })
+                .onErrorMap(GrafanaClient::translate)
+                .onErrorResume(e -> {
+                    if (e instanceof CircuitBreaker.OpenException) return Mono.error(e);
+                    if (!isTransient(e)) {
+                        circuitBreaker.onSuccess();
+                        return Mono.error(e);
+                    }
+                    circuitBreaker.onFailure();
+                    if (attempt >= maxAttempts) return Mono.error(e);
+                    long delay = backoffMillis(http, attempt, e);
+                    if (delay < 0) {
+                        log.warn("Grafana {} call failed and asked to retry later than {} ms, not retrying: {}",
+                                operation, http.getMaxRetryBackoffMs(), e.getMessage());
+                        return Mono.error(e);
+                    }
+                    log.warn("Grafana {} call failed (attempt {}/{}), retrying in {} ms: {}",
+                            operation, attempt, maxAttempts, delay, e.getMessage());
+                    meterRegistry.counter("grafana.client.retries", "operation", operation).increment();
+                    return Mono.delay(Duration.ofMillis(delay)).then(attempt(operation, exchange, attempt + 1));
+                });
+        // Reserve at subscription, not assembly: a retry is assembled before its backoff, and an assembled call
+        // may be subscribed late or never
+        return Mono.defer(() -> {
+            long wait = rateLimit.reserve();
+            return wait > 0 ? Mono.delay(Duration.ofNanos(wait)).then(once) : once;
+        });
+    }
+
+    private void stopTimer(Timer.Sample sample, String operation, String outcome) {
+        sample.stop(meterRegistry.timer("grafana.client.requests", "operation", operation, "outcome", outcome));
+    }
+
+    // Reactor Netty reports response and exchange timeouts unchecked, and WebClient wraps I/O failures;
+    // surface both as the ResourceAccessException RestTemplate uses for I/O errors
+    private static Throwable translate(Throwable e) {
+        Throwable cause = e.getCause();
+        if (e instanceof io.netty.handler.timeout.TimeoutException || cause instanceof TimeoutException
+                || cause instanceof io.netty.handler.timeout.TimeoutException) {
+            SocketTimeoutException timeout = new SocketTimeoutException("Grafana did not respond in time");
+            timeout.initCause(e);
+            return new ResourceAccessException("I/O error on Grafana request: " + timeout.getMessage(), timeout);
+        }
+        if (e instanceof WebClientRequestException) {
+            IOException io = cause instanceof IOException ioe ? ioe : new IOException(e.getMessage(), cause);
+            return new ResourceAccessException("I/O error on Grafana request: " + e.getMessage(), io);
+        }
+        return e;
+    }
+
+    private static boolean isTransient(Throwable e) {
+        return e instanceof ResourceAccessException
+                || e instanceof HttpServerErrorException
+                || e instanceof HttpClientErrorException.TooManyRequests;
+    }
+
+    private static String outcome(Throwable e) {
+        if (e instanceof ResourceAccessException) return "io_error";
+        if (e instanceof RestClientResponseException r) {
+            return r.getStatusCode().is5xxServerError() ? "server_error" : "client_error";
+        }
+        return "error";
+    }
+
+    /**
+     * The Retry-After Grafana sent, honored exactly, or -1 when it is longer than {@code maxRetryBackoffMs}: retrying
+     * earlier than asked only earns another 429/503, so the caller gives up instead. Without a (readable)
+     * Retry-After, exponential backoff with full jitter, capped.
+     */
+    static long backoffMillis(GrafanaProperties.Http http, int attempt, Throwable e) {
+        long cap = Math.max(0, http.getMaxRetryBackoffMs());
+        Long retryAfter = e instanceof RestClientResponseException r && r.getResponseHeaders() != null
+                ? retryAfterMillis(r.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER), System.currentTimeMillis())
+                : null;
+        if (retryAfter != null) return retryAfter <= cap ? retryAfter : -1;
+        long exp = Math.max(0, http.getRetryBackoffMs()) << Math.min(attempt - 1, 20);
+        return ThreadLocalRandom.current().nextLong(Math.min(cap, exp) + 1);
+    }
+
+    // Retry-After as delay-seconds or an HTTP date, in milliseconds from nowMillis; null when absent or unreadable
+    static Long retryAfterMillis(String retryAfter, long nowMillis) {
+        if (retryAfter == null || retryAfter.isBlank()) return null;
+        String value = retryAfter.trim();
+        try {
+            return Math.min(Math.max(0, Long.parseLong(value)), Long.MAX_VALUE / 1000) * 1000;
+        } catch (NumberFormatException notSeconds) {
+            try {
+                long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, at - nowMillis);
+            } catch (DateTimeParseException unreadable) {
+                return null;
+            }
+        }
+    }
+
+    private Endpoint endpoint() {
+        Endpoint ep = endpoint;
+        if (ep == null) {
+            // Not cached until valid, so a missing setting keeps failing with a clear message
+            String base = baseUrl();
+            HttpHeaders auth = authHeaders();
+            HttpHeaders json = new HttpHeaders();
+            json.putAll(auth);
+            json.setContentType(MediaType.APPLICATION_JSON);
+            HttpHeaders gzipJson = new HttpHeaders();
+            gzipJson.putAll(json);
+            gzipJson.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            ep = new Endpoint(base + "/api/dashboards/db", base + "/api/datasources/uid/{uid}",
+                    HttpHeaders.readOnlyHttpHeaders(auth), HttpHeaders.readOnlyHttpHeaders(json),
+                    HttpHeaders.readOnlyHttpHeaders(gzipJson));
+            endpoint = ep;
+        }
+        return ep;
+    }
+
+    private String baseUrl() {
         String url = grafanaProperties.getUrl();
         if (url == null || url.isBlank()) {
             throw new IllegalStateException("grafana.url is not configured");
         }
-        String endpoint = url.replaceAll("/+$", "") + "/api/dashboards/db";
+        return url.replaceAll("/+$", "");
+    }
 
+    private HttpHeaders authHeaders() {
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
         String apiKey = grafanaProperties.getApiKey();
         if (apiKey == null || apiKey.isBlank()) {
             throw new IllegalStateException("grafana.apiKey is not configured");
         }
         headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey);
-
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(dashboardPayload, headers);
-        return restTemplate.exchange(endpoint, HttpMethod.POST, entity, String.class);
+        return headers;
     }
 }
@@ -0,0 +1,34 @@
+package com.example.grafanaautobuilder.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side rate limit as a token bucket that hands out reservations: a caller beyond the rate is not rejected
+ * but told how long to wait, so bursts are spread out at {@code permitsPerSecond} after the first {@code burst}.
+ * A rate <= 0 means unlimited.
+ */
+final class TokenBucket {
+    private final double permitsPerNano;
+    private final double burst;
+
+    // Negative while callers are waiting on reservations already handed out
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /** Takes one token; returns how long (in nanoseconds) the caller must wait before using it. */
+    synchronized long reserve() {
+        if (permitsPerNano <= 0) return 0;
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / permitsPerNano);
+    }
+}
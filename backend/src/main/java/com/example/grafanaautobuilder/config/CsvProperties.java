@@ -0,0 +1,244 @@
+// Purpose: configuration properties holder for csv.* settings (CSV parsing, caching and validation)
+// from application.yml (or env vars).
+
+package com.example.grafanaautobuilder.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "csv")
+public class CsvProperties {
+    private Parse parse = new Parse();
+    private Cache cache = new Cache();
+    private Validation validation = new Validation();
+
+    public Parse getParse() {
+        return parse;
+    }
+
+    public void setParse(Parse parse) {
+        this.parse = parse;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Validation getValidation() {
+        return validation;
+    }
+
+    public void setValidation(Validation validation) {
+        this.validation = validation;
+    }
+
+    public static class Parse {
+        // Inputs at least this large are split and decoded in parallel; <= 0 disables parallel parsing
+        private long parallelThresholdBytes = 2 * 1024 * 1024;
+        // Target size of each chunk handed to a worker; chunks always end on a record boundary
+        private int chunkSizeBytes = 512 * 1024;
+        // Worker threads for parallel parsing; <= 0 means one per available processor
+        private int parallelism = 0;
+
+        public long getParallelThresholdBytes() {
+            return parallelThresholdBytes;
+        }
+
+        public void setParallelThresholdBytes(long parallelThresholdBytes) {
+            this.parallelThresholdBytes = parallelThresholdBytes;
+        }
+
+        public int getChunkSizeBytes() {
+            return chunkSizeBytes;
+        }
+
+        public void setChunkSizeBytes(int chunkSizeBytes) {
+            this.chunkSizeBytes = chunkSizeBytes;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    public static class Cache {
+        // Estimated heap size of all cached parsed rows
+        private long maxWeightBytes = 64L * 1024 * 1024;
+        // Files whose source or parsed rows exceed this are not cached; their rows are only streamed
+        private long maxEntryBytes = 8L * 1024 * 1024;
+        private int maxEntries = 128;
+
+        public long getMaxWeightBytes() {
+            return maxWeightBytes;
+        }
+
+        public void setMaxWeightBytes(long maxWeightBytes) {
+            this.maxWeightBytes = maxWeightBytes;
+        }
+
+        public long getMaxEntryBytes() {
+            return maxEntryBytes;
+        }
+
+        public void setMaxEntryBytes(long maxEntryBytes) {
+            this.maxEntryBytes = maxEntryBytes;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class Validation {
+        // Rows validated at once; <= 0 means the size of the validation connection pool
+        private int parallelism = 0;
+        // Per-row JDBC statement timeout. Also set server-side (PostgreSQL statement_timeout) on every validation
+        // pool, so statements issued without a JDBC timeout are bounded too; <= 0 leaves both unset
+        private int statementTimeoutSeconds = 10;
+        // Upper bound for a whole /validate request; rows still running are cancelled
+        private int deadlineSeconds = 60;
+        private Explain explain = new Explain();
+        private ResultCache cache = new ResultCache();
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getStatementTimeoutSeconds() {
+            return statementTimeoutSeconds;
+        }
+
+        public void setStatementTimeoutSeconds(int statementTimeoutSeconds) {
+            this.statementTimeoutSeconds = statementTimeoutSeconds;
+        }
+
+        public int getDeadlineSeconds() {
+            return deadlineSeconds;
+        }
+
+        public void setDeadlineSeconds(int deadlineSeconds) {
+            this.deadlineSeconds = deadlineSeconds;
+        }
+
+        public Explain getExplain() {
+            return explain;
+        }
+
+        public void setExplain(Explain explain) {
+            this.explain = explain;
+        }
+
+        public ResultCache getCache() {
+            return cache;
+        }
+
+        public void setCache(ResultCache cache) {
+            this.cache = cache;
+        }
+    }
+
+    // Validation outcomes reused across requests; cleared whenever the schema fingerprint changes
+    public static class ResultCache {
+        // <= 0 disables the cache (duplicates within one file are still validated once)
+        private int ttlSeconds = 300;
+        private int maxEntries = 10_000;
+        // How often the schema/Flyway fingerprint is re-read at most
+        private int schemaCheckSeconds = 30;
+
+        public int getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(int ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public int getSchemaCheckSeconds() {
+            return schemaCheckSeconds;
+        }
+
+        public void setSchemaCheckSeconds(int schemaCheckSeconds) {
+            this.schemaCheckSeconds = schemaCheckSeconds;
+        }
+    }
+
+    // Cost gate applied in mode=explain; a limit <= 0 disables that check
+    public static class Explain {
+        // Estimated planner cost allowed for a single panel query
+        private double maxPanelCost = 100_000;
+        // Sum of panel costs allowed for one dashboard refresh
+        private double maxDashboardCost = 500_000;
+        // Sequential scans over tables with at least this many (estimated) rows are flagged
+        private long largeTableRows = 100_000;
+        // Tables whose sequential scan is always flagged, whatever their size
+        private List<String> watchedTables = new ArrayList<>(List.of("orders", "web_sessions"));
+        // true: breaching panels fail validation; false: they pass with a warning
+        private boolean reject = false;
+
+        public double getMaxPanelCost() {
+            return maxPanelCost;
+        }
+
+        public void setMaxPanelCost(double maxPanelCost) {
+            this.maxPanelCost = maxPanelCost;
+        }
+
+        public double getMaxDashboardCost() {
+            return maxDashboardCost;
+        }
+
+        public void setMaxDashboardCost(double maxDashboardCost) {
+            this.maxDashboardCost = maxDashboardCost;
+        }
+
+        public long getLargeTableRows() {
+            return largeTableRows;
+        }
+
+        public void setLargeTableRows(long largeTableRows) {
+            this.largeTableRows = largeTableRows;
+        }
+
+        public List<String> getWatchedTables() {
+            return watchedTables;
+        }
+
+        public void setWatchedTables(List<String> watchedTables) {
+            this.watchedTables = watchedTables;
+        }
+
+        public boolean isReject() {
+            return reject;
+        }
+
+        public void setReject(boolean reject) {
+            this.reject = reject;
+        }
+    }
+}
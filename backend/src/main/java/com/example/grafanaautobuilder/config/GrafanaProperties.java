@@ -15,6 +15,30 @@ public class GrafanaProperties {
     // Default datasource settings used when panel CSV does not specify one
     private String defaultDatasourceUid; // e.g., UID of 'grafana_autobuilder' datasource
     private String defaultDatasourceType; // e.g., "postgres", "prometheus"
+    // Describe each panel query before building so the target format follows the real column types. Off by default:
+    // it costs a round trip to the panel's database per row, and uploads then depend on that database
+    private boolean describeQueries = false;
+    // Skip the Grafana push when a re-upload produces the same dashboard JSON as the last push
+    private boolean skipUnchangedDashboards = true;
+    // Directory of panel templates (<visualization>.json, <grafana type>.json, universal-panel.json);
+    // blank uses the templates bundled under classpath:panel-templates
+    private String panelTemplateDir;
+    // Re-scan panelTemplateDir for changes at most this often; <= 0 loads templates once
+    private int panelTemplateReloadSeconds = 0;
+    // visualization-colors.json to use instead of the bundled one, re-checked at most every
+    // colorConfigReloadSeconds (<= 0 reads it once)
+    private String colorConfigFile;
+    private int colorConfigReloadSeconds = 0;
+    // Built panels kept for reuse when a dashboard is rebuilt with unchanged rows; <= 0 disables
+    private int panelCacheMaxEntries = 10000;
+    private Http http = new Http();
+    private BulkImport bulkImport = new BulkImport();
+    private UploadJobs uploadJobs = new UploadJobs();
+    // Panels are built as their rows arrive; rows past this many are buffered and built in parallel.
+    // <= 0 always builds sequentially
+    private int parallelBuildThreshold = 64;
+    // Worker threads for parallel panel building; <= 0 means one per available processor
+    private int panelBuildParallelism = 0;
 
     public String getUrl() {
         return url;
@@ -63,4 +87,320 @@ public class GrafanaProperties {
     public void setDefaultDatasourceType(String defaultDatasourceType) {
         this.defaultDatasourceType = defaultDatasourceType;
     }
+
+    public boolean isDescribeQueries() {
+        return describeQueries;
+    }
+
+    public void setDescribeQueries(boolean describeQueries) {
+        this.describeQueries = describeQueries;
+    }
+
+    public String getPanelTemplateDir() {
+        return panelTemplateDir;
+    }
+
+    public void setPanelTemplateDir(String panelTemplateDir) {
+        this.panelTemplateDir = panelTemplateDir;
+    }
+
+    public int getPanelTemplateReloadSeconds() {
+        return panelTemplateReloadSeconds;
+    }
+
+    public void setPanelTemplateReloadSeconds(int panelTemplateReloadSeconds) {
+        this.panelTemplateReloadSeconds = panelTemplateReloadSeconds;
+    }
+
+    public int getParallelBuildThreshold() {
+        return parallelBuildThreshold;
+    }
+
+    public void setParallelBuildThreshold(int parallelBuildThreshold) {
+        this.parallelBuildThreshold = parallelBuildThreshold;
+    }
+
+    public int getPanelBuildParallelism() {
+        return panelBuildParallelism;
+    }
+
+    public void setPanelBuildParallelism(int panelBuildParallelism) {
+        this.panelBuildParallelism = panelBuildParallelism;
+    }
+
+    public String getColorConfigFile() {
+        return colorConfigFile;
+    }
+
+    public void setColorConfigFile(String colorConfigFile) {
+        this.colorConfigFile = colorConfigFile;
+    }
+
+    public int getColorConfigReloadSeconds() {
+        return colorConfigReloadSeconds;
+    }
+
+    public void setColorConfigReloadSeconds(int colorConfigReloadSeconds) {
+        this.colorConfigReloadSeconds = colorConfigReloadSeconds;
+    }
+
+    public int getPanelCacheMaxEntries() {
+        return panelCacheMaxEntries;
+    }
+
+    public void setPanelCacheMaxEntries(int panelCacheMaxEntries) {
+        this.panelCacheMaxEntries = panelCacheMaxEntries;
+    }
+
+    public boolean isSkipUnchangedDashboards() {
+        return skipUnchangedDashboards;
+    }
+
+    public void setSkipUnchangedDashboards(boolean skipUnchangedDashboards) {
+        this.skipUnchangedDashboards = skipUnchangedDashboards;
+    }
+
+    public Http getHttp() {
+        return http;
+    }
+
+    public void setHttp(Http http) {
+        this.http = http;
+    }
+
+    public BulkImport getBulkImport() {
+        return bulkImport;
+    }
+
+    public void setBulkImport(BulkImport bulkImport) {
+        this.bulkImport = bulkImport;
+    }
+
+    public UploadJobs getUploadJobs() {
+        return uploadJobs;
+    }
+
+    public void setUploadJobs(UploadJobs uploadJobs) {
+        this.uploadJobs = uploadJobs;
+    }
+
+    // Transport to the Grafana API: pooled keep-alive connections, timeouts, retries and a circuit breaker
+    public static class Http {
+        private int maxConnections = 50;
+        // How long a request waits for a free pooled connection
+        private int acquireTimeoutMs = 10_000;
+        // Idle pooled connections are closed after this long
+        private int maxIdleSeconds = 30;
+        private int connectTimeoutMs = 5_000;
+        // Time allowed for Grafana to respond once the request is sent
+        private int readTimeoutMs = 30_000;
+        // Send request bodies gzip-compressed (Content-Encoding: gzip); the server or proxy must accept it
+        private boolean gzipRequests = false;
+        // Attempts per call, including the first; 429, 5xx and I/O errors are retried
+        private int maxAttempts = 3;
+        // Retry delays grow exponentially from this base up to the cap, with full jitter
+        private int retryBackoffMs = 200;
+        // Also the longest Retry-After that is waited out; a longer one fails the call instead
+        private int maxRetryBackoffMs = 5_000;
+        // Consecutive failed calls that open the circuit; <= 0 disables the breaker
+        private int circuitFailureThreshold = 5;
+        // How long an open circuit fails calls fast before letting a trial call through
+        private int circuitOpenSeconds = 30;
+        // Dashboards of one batch published concurrently (non-blocking client); the pool bounds all calls
+        private int maxInFlight = 8;
+        // Client-side rate limit on Grafana calls, retries included; <= 0 disables it
+        private double rateLimitPerSecond = 20;
+        // Calls allowed at once before the rate limit spaces them out
+        private int rateLimitBurst = 20;
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getAcquireTimeoutMs() {
+            return acquireTimeoutMs;
+        }
+
+        public void setAcquireTimeoutMs(int acquireTimeoutMs) {
+            this.acquireTimeoutMs = acquireTimeoutMs;
+        }
+
+        public int getMaxIdleSeconds() {
+            return maxIdleSeconds;
+        }
+
+        public void setMaxIdleSeconds(int maxIdleSeconds) {
+            this.maxIdleSeconds = maxIdleSeconds;
+        }
+
+        public int getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public int getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+
+        public boolean isGzipRequests() {
+            return gzipRequests;
+        }
+
+        public void setGzipRequests(boolean gzipRequests) {
+            this.gzipRequests = gzipRequests;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public int getRetryBackoffMs() {
+            return retryBackoffMs;
+        }
+
+        public void setRetryBackoffMs(int retryBackoffMs) {
+            this.retryBackoffMs = retryBackoffMs;
+        }
+
+        public int getMaxRetryBackoffMs() {
+            return maxRetryBackoffMs;
+        }
+
+        public void setMaxRetryBackoffMs(int maxRetryBackoffMs) {
+            this.maxRetryBackoffMs = maxRetryBackoffMs;
+        }
+
+        public int getCircuitFailureThreshold() {
+            return circuitFailureThreshold;
+        }
+
+        public void setCircuitFailureThreshold(int circuitFailureThreshold) {
+            this.circuitFailureThreshold = circuitFailureThreshold;
+        }
+
+        public int getCircuitOpenSeconds() {
+            return circuitOpenSeconds;
+        }
+
+        public void setCircuitOpenSeconds(int circuitOpenSeconds) {
+            this.circuitOpenSeconds = circuitOpenSeconds;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        public double getRateLimitPerSecond() {
+            return rateLimitPerSecond;
+        }
+
+        public void setRateLimitPerSecond(double rateLimitPerSecond) {
+            this.rateLimitPerSecond = rateLimitPerSecond;
+        }
+
+        public int getRateLimitBurst() {
+            return rateLimitBurst;
+        }
+
+        public void setRateLimitBurst(int rateLimitBurst) {
+            this.rateLimitBurst = rateLimitBurst;
+        }
+    }
+
+    // POST /api/dashboard/bulk: many CSVs (or zips of CSVs) turned into dashboards in one request
+    public static class BulkImport {
+        // CSV files accepted per request, zip entries included; the rest are reported as rejected
+        private int maxFiles = 200;
+        // Largest single CSV, checked while it is read out of a zip
+        private long maxFileBytes = 20L * 1024 * 1024;
+        // Files stored, parsed and built at once; publishing is bounded by grafana.http.maxInFlight
+        private int parallelism = 4;
+
+        public int getMaxFiles() {
+            return maxFiles;
+        }
+
+        public void setMaxFiles(int maxFiles) {
+            this.maxFiles = maxFiles;
+        }
+
+        public long getMaxFileBytes() {
+            return maxFileBytes;
+        }
+
+        public void setMaxFileBytes(long maxFileBytes) {
+            this.maxFileBytes = maxFileBytes;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    // POST /api/dashboard/upload?async=true: uploads run as background jobs on a bounded pool
+    public static class UploadJobs {
+        // Jobs running at once
+        private int workers = 4;
+        // Jobs waiting for a worker; further uploads are refused with 503
+        private int queueCapacity = 100;
+        // Finished jobs stay pollable this long
+        private int retentionSeconds = 900;
+        // On shutdown, running jobs get this long to finish before they are interrupted
+        private int shutdownTimeoutSeconds = 30;
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getRetentionSeconds() {
+            return retentionSeconds;
+        }
+
+        public void setRetentionSeconds(int retentionSeconds) {
+            this.retentionSeconds = retentionSeconds;
+        }
+
+        public int getShutdownTimeoutSeconds() {
+            return shutdownTimeoutSeconds;
+        }
+
+        public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+            this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+        }
+    }
 }
@@ -1,17 +1,62 @@
 package com.example.grafanaautobuilder.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ReactorNettyClientRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 @Configuration
 public class RestTemplateConfig {
+    // Bounded keep-alive pool; its gauges are published as reactor.netty.connection.provider.* {name=grafana}
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider grafanaConnectionProvider(GrafanaProperties grafanaProperties) {
+        GrafanaProperties.Http http = grafanaProperties.getHttp();
+        return ConnectionProvider.builder("grafana")
+                .maxConnections(http.getMaxConnections())
+                .pendingAcquireTimeout(Duration.ofMillis(http.getAcquireTimeoutMs()))
+                .maxIdleTime(Duration.ofSeconds(http.getMaxIdleSeconds()))
+                .evictInBackground(Duration.ofSeconds(http.getMaxIdleSeconds()))
+                .metrics(true)
+                .build();
+    }
+
+    // Shared by the blocking RestTemplate and the non-blocking WebClient, so both draw from the one pool
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public HttpClient grafanaHttpClient(ConnectionProvider grafanaConnectionProvider,
+                                        GrafanaProperties grafanaProperties) {
+        GrafanaProperties.Http http = grafanaProperties.getHttp();
+        // compress(true) asks for gzip responses; request bodies are compressed by GrafanaClient when enabled
+        return HttpClient.create(grafanaConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, http.getConnectTimeoutMs())
+                .compress(true)
+                .keepAlive(true)
+                // Bounds waiting for the response once the request is sent
+                .responseTimeout(Duration.ofMillis(http.getReadTimeoutMs()));
+    }
+
+    @Bean
+    public RestTemplate restTemplate(HttpClient grafanaHttpClient, GrafanaProperties grafanaProperties) {
+        GrafanaProperties.Http http = grafanaProperties.getHttp();
+        ReactorNettyClientRequestFactory factory = new ReactorNettyClientRequestFactory(grafanaHttpClient);
+        factory.setConnectTimeout(Duration.ofMillis(http.getConnectTimeoutMs()));
+        // The factory's read timeout covers reading the body
+        factory.setReadTimeout(Duration.ofMillis(http.getReadTimeoutMs()));
+        // Bounds sending the (streamed) body plus waiting for the response headers
+        factory.setExchangeTimeout(Duration.ofMillis((long) http.getConnectTimeoutMs() + http.getReadTimeoutMs()));
+        return new RestTemplate(factory);
     }
-}
 
-// Spring's traditional HTTP client for making REST API calls
-// Used to communicate with other services/APIs
-// Will be deprecated in future Spring versions in favor of WebClient
\ No newline at end of file
+    @Bean
+    public WebClient grafanaWebClient(HttpClient grafanaHttpClient) {
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(grafanaHttpClient))
+                .build();
+    }
+}
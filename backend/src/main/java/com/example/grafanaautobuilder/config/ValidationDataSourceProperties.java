@@ -0,0 +1,203 @@
+// Purpose: Settings for the connection pool that runs user-supplied panel SQL during validation,
+// kept apart from the application's own datasource (validation.datasource.*).
+
+package com.example.grafanaautobuilder.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "validation.datasource")
+public class ValidationDataSourceProperties {
+    // Blank url/username/password fall back to spring.datasource.*
+    private String url;
+    private String username;
+    private String password;
+    private int maximumPoolSize = 4;
+    // How long a validation waits for a free connection before failing
+    private long connectionTimeoutMs = 5_000;
+    private Replica replica = new Replica();
+    // Pools for other Grafana datasource UIDs named in the CSV, keyed by UID; UIDs not listed here are
+    // resolved through Grafana's datasource API
+    private Map<String, Target> targets = new LinkedHashMap<>();
+    private int targetPoolSize = 2;
+    // Pools for non-default datasources unused for this long are closed
+    private int idleEvictSeconds = 600;
+    // A failed lookup in Grafana is retried after this long
+    private int resolveRetrySeconds = 60;
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    public long getConnectionTimeoutMs() {
+        return connectionTimeoutMs;
+    }
+
+    public void setConnectionTimeoutMs(long connectionTimeoutMs) {
+        this.connectionTimeoutMs = connectionTimeoutMs;
+    }
+
+    public Replica getReplica() {
+        return replica;
+    }
+
+    public void setReplica(Replica replica) {
+        this.replica = replica;
+    }
+
+    public Map<String, Target> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(Map<String, Target> targets) {
+        this.targets = targets;
+    }
+
+    public int getTargetPoolSize() {
+        return targetPoolSize;
+    }
+
+    public void setTargetPoolSize(int targetPoolSize) {
+        this.targetPoolSize = targetPoolSize;
+    }
+
+    public int getIdleEvictSeconds() {
+        return idleEvictSeconds;
+    }
+
+    public void setIdleEvictSeconds(int idleEvictSeconds) {
+        this.idleEvictSeconds = idleEvictSeconds;
+    }
+
+    public int getResolveRetrySeconds() {
+        return resolveRetrySeconds;
+    }
+
+    public void setResolveRetrySeconds(int resolveRetrySeconds) {
+        this.resolveRetrySeconds = resolveRetrySeconds;
+    }
+
+    // Connection for one Grafana datasource UID. Without a url, host/database/user come from Grafana and only
+    // the credentials set here are used (Grafana never returns the password); a UID resolved through Grafana
+    // without a username or password here is not validated.
+    public static class Target {
+        private String url;
+        private String username;
+        private String password;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+
+    // Optional read replica preferred for validation while its replay lag stays under maxLagSeconds
+    public static class Replica {
+        // Blank disables replica routing
+        private String url;
+        // Blank username/password reuse the validation pool's credentials
+        private String username;
+        private String password;
+        private int maximumPoolSize = 4;
+        private int maxLagSeconds = 30;
+        // How often lag is re-measured in the background; a failed check routes to the primary until the next one
+        private int lagCheckSeconds = 10;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public int getMaximumPoolSize() {
+            return maximumPoolSize;
+        }
+
+        public void setMaximumPoolSize(int maximumPoolSize) {
+            this.maximumPoolSize = maximumPoolSize;
+        }
+
+        public int getMaxLagSeconds() {
+            return maxLagSeconds;
+        }
+
+        public void setMaxLagSeconds(int maxLagSeconds) {
+            this.maxLagSeconds = maxLagSeconds;
+        }
+
+        public int getLagCheckSeconds() {
+            return lagCheckSeconds;
+        }
+
+        public void setLagCheckSeconds(int lagCheckSeconds) {
+            this.lagCheckSeconds = lagCheckSeconds;
+        }
+    }
+}
@@ -1,58 +1,62 @@
 // Accepts CSV files, validates them, and creates Grafana dashboards from them.
 // Validates presence of file.
 // Extracts the authenticated user’s email if available from SecurityContext.
-// Uploads CSV to Supabase via SupabaseStorageService.uploadCsv(...).
-// Persists FileMetadata (bucket uploads, object path, size, checksum).
-// Calls DashboardService.createDashboardFromCsv(...) to create dashboard in Grafana.
-// Responds with { uid, title, grafanaUrl, grafanaResponse, storageBucket, storageObjectPath }.
+// Runs UploadPipeline: uploads CSV to Supabase, persists FileMetadata (bucket uploads, object path, size,
+// checksum), and creates or updates the user's dashboard of that title (or file name) in Grafana; identical
+// re-uploads skip the Grafana call.
+// Responds with { uid, title, grafanaUrl, grafanaResponse, unchanged, storageBucket, storageObjectPath }.
+// With async=true the pipeline runs as a DashboardJob: responds 202 { jobId, status, statusUrl, eventsUrl } at
+// once, and /jobs/{id} (polling) or /jobs/{id}/events (SSE) report stage progress and the same result.
+// /bulk does the same for many CSVs (or zips of them) via BulkImportService, streaming one NDJSON line per file.
 
 
 package com.example.grafanaautobuilder.controller;
 
-import com.example.grafanaautobuilder.config.GrafanaProperties;
-import com.example.grafanaautobuilder.entity.FileMetadata;
 import com.example.grafanaautobuilder.entity.User;
-import com.example.grafanaautobuilder.repository.FileMetadataRepository;
+import com.example.grafanaautobuilder.service.csv.CsvUpload;
 import com.example.grafanaautobuilder.service.csv.CsvValidationService;
-import com.example.grafanaautobuilder.service.grafana.DashboardService;
-import com.example.grafanaautobuilder.service.storage.SupabaseStorageService;
+import com.example.grafanaautobuilder.service.csv.ValidationMode;
+import com.example.grafanaautobuilder.service.grafana.BulkImportService;
+import com.example.grafanaautobuilder.service.grafana.DashboardJob;
+import com.example.grafanaautobuilder.service.grafana.DashboardJobService;
+import com.example.grafanaautobuilder.service.grafana.UploadPipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/dashboard")
 public class DashboardUploadController {
 
-    private final DashboardService dashboardService;
+    private final UploadPipeline uploadPipeline;
+    private final DashboardJobService dashboardJobService;
     private final CsvValidationService csvValidationService;
-    private final GrafanaProperties grafanaProperties;
-    private final SupabaseStorageService storageService;
-    private final FileMetadataRepository fileRepo;
+    private final BulkImportService bulkImportService;
     private static final Logger log = LoggerFactory.getLogger(DashboardUploadController.class);
 
-    public DashboardUploadController(DashboardService dashboardService,
-                                     GrafanaProperties grafanaProperties,
+    public DashboardUploadController(UploadPipeline uploadPipeline,
+                                     DashboardJobService dashboardJobService,
                                      CsvValidationService csvValidationService,
-                                     SupabaseStorageService storageService,
-                                     FileMetadataRepository fileRepo) {
-        this.dashboardService = dashboardService;
-        this.grafanaProperties = grafanaProperties;
+                                     BulkImportService bulkImportService) {
+        this.uploadPipeline = uploadPipeline;
+        this.dashboardJobService = dashboardJobService;
         this.csvValidationService = csvValidationService;
-        this.storageService = storageService;
-        this.fileRepo = fileRepo;
+        this.bulkImportService = bulkImportService;
     }
 
     @GetMapping("/test")
@@ -63,9 +67,9 @@ public class DashboardUploadController {
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     // Uncomment if using method-level security
     // @PreAuthorize("isAuthenticated()")
-    @SuppressWarnings("unchecked")
     public ResponseEntity<?> uploadCsvAndCreateDashboard(@RequestParam("file") MultipartFile file,
-                                                         @RequestParam(value = "title", required = false) String title) {
+                                                         @RequestParam(value = "title", required = false) String title,
+                                                         @RequestParam(value = "async", defaultValue = "false") boolean async) {
         try {
             log.info("Received upload request - file: {}, title: {}", 
                     file != null ? file.getOriginalFilename() : "null", title);
@@ -77,50 +81,34 @@ public class DashboardUploadController {
             log.info("Received upload: name='{}', size={} bytes, contentType='{}', title='{}'",
                     file.getOriginalFilename(), file.getSize(), file.getContentType(), title);
 
-            String computedTitle = (title != null && !title.isBlank()) ? title :
-                    (stripCsv(file.getOriginalFilename()) + " - " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-            log.info("Computed dashboard title: {}", computedTitle);
-
             // Resolve current user (email) if authenticated
-            String username = null;
-            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-            if (auth != null && auth.getPrincipal() instanceof User) {
-                username = ((User) auth.getPrincipal()).getEmail();
+            String username = currentUsername();
+
+            // Read the upload once; storage, checksum and parsing all share the same buffer
+            CsvUpload upload = CsvUpload.read(file);
+
+            if (async) {
+                // Runs on the job pool; the client polls /jobs/{id} or follows /jobs/{id}/events
+                DashboardJob job = dashboardJobService.submit(upload, username, title);
+                String jobUrl = "/api/dashboard/jobs/" + job.getId();
+                return ResponseEntity.accepted()
+                        .location(URI.create(jobUrl))
+                        .body(Map.of(
+                                "jobId", job.getId(),
+                                "status", job.getStatus(),
+                                "statusUrl", jobUrl,
+                                "eventsUrl", jobUrl + "/events"
+                        ));
             }
 
-            // Save CSV to Supabase storage and persist metadata (userId unknown -> null)
-            String objectPath = storageService.uploadCsv(null, username, file);
-            String checksum = DigestUtils.md5DigestAsHex(file.getBytes());
-            FileMetadata meta = new FileMetadata(
-                    null,
-                    null,
-                    "uploads",
-                    objectPath,
-                    file.getOriginalFilename() != null ? file.getOriginalFilename() : "file.csv",
-                    file.getSize(),
-                    checksum,
-                    Instant.now()
-            );
-            meta = fileRepo.save(meta);
-
-            Map<String, Object> result = dashboardService.createDashboardFromCsv(file, computedTitle);
-            // Best-effort URL using the uid we sent; Grafana may override, but this still helps UX.
-            Map<String, Object> payload = (Map<String, Object>) result.get("requestPayload");
-            Map<String, Object> dash = (Map<String, Object>) payload.get("dashboard");
-            String uid = dash.get("uid").toString();
-            String base = grafanaProperties.getUrl() != null ? grafanaProperties.getUrl().replaceAll("/+$$", "") : "http://localhost:3000";
-            String dashboardUrl = base + "/d/" + uid;
-
-            Map<String, Object> response = new HashMap<>();
-            response.put("uid", uid);
-            response.put("title", dash.get("title"));
-            response.put("grafanaUrl", dashboardUrl);
-            response.put("grafanaResponse", result.get("grafanaResponse"));
-            // also include storage info
-            response.put("storageBucket", "uploads");
-            response.put("storageObjectPath", objectPath);
-            log.info("Dashboard creation request completed, uid={} url={}", uid, dashboardUrl);
+            Map<String, Object> response = uploadPipeline.run(upload, username, title, UploadPipeline.Listener.NONE);
+            log.info("Dashboard creation request completed, uid={} url={}", response.get("uid"), response.get("grafanaUrl"));
             return ResponseEntity.ok(response);
+        } catch (RejectedExecutionException e) {
+            log.warn("Upload job queue is full, refusing async upload");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(Map.of("error", "Too many uploads in progress, retry later"));
         } catch (Exception e) {
             log.error("Error handling /api/dashboard/upload: {}", e.getMessage(), e);
             log.error("Stack trace: ", e);
@@ -131,13 +119,59 @@ public class DashboardUploadController {
         }
     }
 
+    /** State of an async upload: status, per-stage progress and, once finished, the result or error. */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> uploadJob(@PathVariable("id") String id) {
+        return dashboardJobService.find(id, currentUsername())
+                .<ResponseEntity<?>>map(job -> ResponseEntity.ok(job.snapshot()))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Job not found")));
+    }
+
+    /**
+     * Server-Sent Events of an async upload: what already happened is replayed, then {@code status} and
+     * {@code stage} events follow as they occur; the stream ends with a {@code result} event.
+     */
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<Map<String, Object>>>> uploadJobEvents(@PathVariable("id") String id) {
+        return dashboardJobService.find(id, currentUsername())
+                .map(job -> ResponseEntity.ok(job.events()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Creates or updates one dashboard per CSV, each named after its file. {@code files} are CSVs and/or zips of
+     * CSVs. Results are streamed as newline-delimited JSON, one line per CSV as it finishes, then a summary line.
+     */
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<Map<String, Object>>> bulkImport(@RequestParam("files") List<MultipartFile> files) {
+        List<MultipartFile> nonEmpty = files.stream().filter(f -> f != null && !f.isEmpty()).toList();
+        if (nonEmpty.isEmpty()) {
+            log.warn("/api/dashboard/bulk called without files");
+            return ResponseEntity.badRequest().body(Flux.just(Map.of("error", "At least one CSV or zip file is required")));
+        }
+        log.info("Received bulk import of {} files ({} bytes)", nonEmpty.size(),
+                nonEmpty.stream().mapToLong(MultipartFile::getSize).sum());
+        return ResponseEntity.ok(bulkImportService.importFiles(nonEmpty, currentUsername()));
+    }
+
     @PostMapping(value = "/validate", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<?> validateCsv(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> validateCsv(@RequestParam("file") MultipartFile file,
+                                         @RequestParam Map<String, String> params) {
         try {
             if (file == null || file.isEmpty()) {
                 return ResponseEntity.badRequest().body(Map.of("error", "CSV file is required"));
             }
-            var results = csvValidationService.validate(file);
+            // Dashboard variables follow Grafana's URL convention: var-<name>=<value>
+            Map<String, String> variables = new HashMap<>();
+            params.forEach((k, v) -> {
+                if (k.startsWith("var-") && k.length() > 4) variables.put(k.substring(4), v);
+            });
+            ValidationMode mode = ValidationMode.parse(params.get("mode"));
+            var results = csvValidationService.validate(file, variables, mode);
+            if (mode == ValidationMode.EXPLAIN) {
+                return ResponseEntity.ok(Map.of("results", results, "budget", csvValidationService.loadBudget(results)));
+            }
             return ResponseEntity.ok(Map.of("results", results));
         } catch (Exception e) {
             log.error("Error handling /api/dashboard/validate: {}", e.getMessage(), e);
@@ -148,8 +182,11 @@ public class DashboardUploadController {
         }
     }
 
-    private static String stripCsv(String name) {
-        if (name == null) return "Dashboard";
-        return name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+    private static String currentUsername() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getPrincipal() instanceof User) {
+            return ((User) auth.getPrincipal()).getEmail();
+        }
+        return null;
     }
 }
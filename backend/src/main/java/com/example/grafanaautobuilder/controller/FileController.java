@@ -9,6 +9,7 @@ import com.example.grafanaautobuilder.dto.FileMetadataDto;
 import com.example.grafanaautobuilder.entity.FileMetadata;
 import com.example.grafanaautobuilder.repository.FileMetadataRepository;
 import com.example.grafanaautobuilder.entity.User;
+import com.example.grafanaautobuilder.service.csv.CsvUpload;
 import com.example.grafanaautobuilder.service.storage.SupabaseStorageService;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
@@ -18,7 +19,6 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -61,8 +61,9 @@ public class FileController {
                 }
             }
 
-            String objectPath = storageService.uploadCsv(userId, username, file);
-            String checksum = DigestUtils.md5DigestAsHex(file.getBytes());
+            // Read the upload once; the storage body and checksum share the same buffer
+            CsvUpload upload = CsvUpload.read(file);
+            String objectPath = storageService.uploadCsv(userId, username, upload);
 
             FileMetadata meta = new FileMetadata(
                     null,
@@ -70,8 +71,8 @@ public class FileController {
                     "uploads",
                     objectPath,
                     originalName != null ? originalName : "file.csv",
-                    file.getSize(),
-                    checksum,
+                    upload.getSize(),
+                    upload.getChecksum(),
                     Instant.now()
             );
             meta = fileRepo.save(meta);
@@ -0,0 +1,19 @@
+package com.example.grafanaautobuilder.dto;
+
+public class ColumnInfo {
+    private String name;
+    private String type; // database type name, e.g. timestamptz, int8
+
+    public ColumnInfo() {}
+
+    public ColumnInfo(String name, String type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+}
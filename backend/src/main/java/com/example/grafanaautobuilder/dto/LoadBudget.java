@@ -0,0 +1,30 @@
+package com.example.grafanaautobuilder.dto;
+
+// Planner cost of loading a whole dashboard once: the sum over all panel queries
+public class LoadBudget {
+    private double totalCost;
+    private long totalRows;
+    private double maxCost;
+    private boolean exceeded;
+
+    public LoadBudget() {}
+
+    public LoadBudget(double totalCost, long totalRows, double maxCost) {
+        this.totalCost = totalCost;
+        this.totalRows = totalRows;
+        this.maxCost = maxCost;
+        this.exceeded = maxCost > 0 && totalCost > maxCost;
+    }
+
+    public double getTotalCost() { return totalCost; }
+    public void setTotalCost(double totalCost) { this.totalCost = totalCost; }
+
+    public long getTotalRows() { return totalRows; }
+    public void setTotalRows(long totalRows) { this.totalRows = totalRows; }
+
+    public double getMaxCost() { return maxCost; }
+    public void setMaxCost(double maxCost) { this.maxCost = maxCost; }
+
+    public boolean isExceeded() { return exceeded; }
+    public void setExceeded(boolean exceeded) { this.exceeded = exceeded; }
+}
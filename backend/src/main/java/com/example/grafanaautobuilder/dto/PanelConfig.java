@@ -1,5 +1,7 @@
 package com.example.grafanaautobuilder.dto;
 
+import java.util.Locale;
+
 public class PanelConfig {
     private String title;
     private String datasource;
@@ -15,6 +17,34 @@ public class PanelConfig {
     private String timeShift;
     // Optional explicit color hex (e.g., #7C3AED). If set, overrides defaults.
     private String color;
+    // Whether the query returns a timestamp (or unix epoch number) column named "time", from a prepared-statement
+    // describe. Null when unknown. Set per upload, on the copy the parse cache hands out, never on a cached row.
+    private Boolean timeColumn;
+    // Derived when the visualization and query are set (i.e. once at parse time), so later stages need no string work
+    private VisualizationKind visualizationKind = VisualizationKind.UNSPECIFIED;
+    private boolean timeAlias;
+    private boolean timeMacros;
+
+    /** A copy of this row, derived fields included, e.g. so a cached row can be handed out and then modified. */
+    public PanelConfig copy() {
+        PanelConfig copy = new PanelConfig();
+        copy.title = title;
+        copy.datasource = datasource;
+        copy.query = query;
+        copy.visualization = visualization;
+        copy.unit = unit;
+        copy.thresholds = thresholds;
+        copy.w = w;
+        copy.h = h;
+        copy.timeFrom = timeFrom;
+        copy.timeShift = timeShift;
+        copy.color = color;
+        copy.timeColumn = timeColumn;
+        copy.visualizationKind = visualizationKind;
+        copy.timeAlias = timeAlias;
+        copy.timeMacros = timeMacros;
+        return copy;
+    }
 
     public String getTitle() {
         return title;
@@ -38,6 +68,12 @@ public class PanelConfig {
 
     public void setQuery(String query) {
         this.query = query;
+        String sql = query == null ? "" : query.toLowerCase(Locale.ROOT);
+        this.timeAlias = sql.contains(" as time") || sql.contains("as \"time\"");
+        this.timeMacros = sql.contains("$__timefilter")
+                || sql.contains("$__timefrom()")
+                || sql.contains("$__timeto()")
+                || sql.contains("$__unixepochfilter");
     }
 
     public String getVisualization() {
@@ -46,6 +82,11 @@ public class PanelConfig {
 
     public void setVisualization(String visualization) {
         this.visualization = visualization;
+        this.visualizationKind = VisualizationKind.of(visualization);
+    }
+
+    public VisualizationKind getVisualizationKind() {
+        return visualizationKind;
     }
 
     public String getUnit() {
@@ -103,4 +144,22 @@ public class PanelConfig {
     public void setColor(String color) {
         this.color = color;
     }
+
+    public Boolean getTimeColumn() {
+        return timeColumn;
+    }
+
+    public void setTimeColumn(Boolean timeColumn) {
+        this.timeColumn = timeColumn;
+    }
+
+    // The query selects something aliased "time" (text heuristic; a described timeColumn is more reliable)
+    public boolean hasTimeAlias() {
+        return timeAlias;
+    }
+
+    // The query is bounded by the dashboard range through $__timeFilter, $__timeFrom() and similar macros
+    public boolean usesTimeMacros() {
+        return timeMacros;
+    }
 }
@@ -1,10 +1,24 @@
 package com.example.grafanaautobuilder.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
 public class ValidationResult {
     private int row;
     private String title;
     private boolean ok;
     private String message;
+    // Only filled in describe mode
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<ColumnInfo> columns;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean timeColumn;
+    // Only filled in explain mode: planner estimates for the panel query
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double estimatedCost;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long estimatedRows;
 
     public ValidationResult() {}
 
@@ -34,4 +48,16 @@ public class ValidationResult {
 
     public String getMessage() { return message; }
     public void setMessage(String message) { this.message = message; }
+
+    public List<ColumnInfo> getColumns() { return columns; }
+    public void setColumns(List<ColumnInfo> columns) { this.columns = columns; }
+
+    public Boolean getTimeColumn() { return timeColumn; }
+    public void setTimeColumn(Boolean timeColumn) { this.timeColumn = timeColumn; }
+
+    public Double getEstimatedCost() { return estimatedCost; }
+    public void setEstimatedCost(Double estimatedCost) { this.estimatedCost = estimatedCost; }
+
+    public Long getEstimatedRows() { return estimatedRows; }
+    public void setEstimatedRows(Long estimatedRows) { this.estimatedRows = estimatedRows; }
 }
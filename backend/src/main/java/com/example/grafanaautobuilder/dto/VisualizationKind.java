@@ -0,0 +1,55 @@
+package com.example.grafanaautobuilder.dto;
+
+import java.util.Locale;
+
+// The CSV visualization alias resolved once per row; panel building and validation branch on this
+public enum VisualizationKind {
+    // No visualization given: a plain time series without preset options or colors
+    UNSPECIFIED("timeseries"),
+    TIMESERIES("timeseries"),
+    // Any alias we do not know; rendered as a time series
+    OTHER("timeseries"),
+    STAT("stat"),
+    TABLE("table"),
+    BARCHART("barchart"),
+    GAUGE("gauge"),
+    ECHARTS_LINE("volkovlabs-echarts-panel"),
+    ECHARTS_BAR("volkovlabs-echarts-panel");
+
+    private final String grafanaType;
+
+    VisualizationKind(String grafanaType) {
+        this.grafanaType = grafanaType;
+    }
+
+    public static VisualizationKind of(String alias) {
+        if (alias == null) return UNSPECIFIED;
+        switch (alias.toLowerCase(Locale.ROOT)) {
+            case "timeseries": return TIMESERIES;
+            case "stat": return STAT;
+            case "table": return TABLE;
+            case "barchart":
+            case "bar": return BARCHART;
+            case "gauge": return GAUGE;
+            case "echarts":
+            case "echarts-line":
+            case "business": return ECHARTS_LINE;
+            case "echarts-bar": return ECHARTS_BAR;
+            default: return OTHER;
+        }
+    }
+
+    // Grafana panel plugin id
+    public String grafanaType() {
+        return grafanaType;
+    }
+
+    public boolean isEcharts() {
+        return this == ECHARTS_LINE || this == ECHARTS_BAR;
+    }
+
+    // Panels that read as "value over the dashboard time range" and need the query bounded by it
+    public boolean isTimeBased() {
+        return this == UNSPECIFIED || this == TIMESERIES || this == STAT || this == GAUGE;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.grafanaautobuilder.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "published_dashboards")
+public class PublishedDashboard {
+
+    @Id
+    @Column(length = 40)
+    private String uid;
+
+    private String owner; // null if unauthenticated
+
+    @Column(nullable = false)
+    private String name;
+
+    @Column(nullable = false)
+    private String title;
+
+    // SHA-256 (hex) of the dashboard JSON last sent to Grafana
+    @Column(nullable = false, length = 64)
+    private String fingerprint;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
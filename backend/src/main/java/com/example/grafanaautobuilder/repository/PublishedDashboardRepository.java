@@ -0,0 +1,9 @@
+package com.example.grafanaautobuilder.repository;
+
+import com.example.grafanaautobuilder.entity.PublishedDashboard;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PublishedDashboardRepository extends JpaRepository<PublishedDashboard, String> {
+}
@@ -0,0 +1,173 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import com.example.grafanaautobuilder.config.CsvProperties;
+import com.example.grafanaautobuilder.dto.PanelConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * LRU cache of parsed CSV rows keyed by the MD5 of the file content, so the usual
+ * /validate-then-/upload sequence parses identical bytes only once.
+ * Bounded by entry count and by the estimated heap size of the parsed rows; files whose source or rows
+ * exceed {@code csv.cache.maxEntryBytes} are not cached. Rows always reach the consumer one at a time
+ * as they are parsed or read from the cache, and the cache keeps its own copies, so consumers may
+ * modify the rows they are given.
+ */
+@Component
+public class CsvParseCache {
+    private final CsvParsingService csvParsingService;
+    private final CsvProperties.Cache cacheProperties;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weightBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CsvParseCache(CsvParsingService csvParsingService, CsvProperties csvProperties, MeterRegistry meterRegistry) {
+        this.csvParsingService = csvParsingService;
+        this.cacheProperties = csvProperties.getCache();
+
+        FunctionCounter.builder("csv.parse.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("csv.parse.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("csv.parse.cache.evictions", evictions, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("csv.parse.cache.entries", this, c -> c.size()).register(meterRegistry);
+        Gauge.builder("csv.parse.cache.weight", this, c -> c.weight()).baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * Feeds every row of {@code file} to {@code sink} in order, from the cache when possible and streamed
+     * from the upload otherwise. The file is hashed in one pass and parsed in a second, never buffered whole.
+     */
+    public void forEachRow(MultipartFile file, Consumer<PanelConfig> sink) throws IOException {
+        if (file.getSize() > cacheProperties.getMaxEntryBytes()) {
+            try (InputStream in = file.getInputStream()) {
+                csvParsingService.stream(in, file.getSize(), sink);
+            }
+            return;
+        }
+        String checksum;
+        try (InputStream in = file.getInputStream()) {
+            checksum = DigestUtils.md5DigestAsHex(in);
+        }
+        forEachRow(checksum, file.getSize(), file::getInputStream, sink);
+    }
+
+    /** Same as {@link #forEachRow(MultipartFile, Consumer)} for an upload that is already buffered and hashed. */
+    public void forEachRow(CsvUpload upload, Consumer<PanelConfig> sink) throws IOException {
+        if (upload.getSize() > cacheProperties.getMaxEntryBytes()) {
+            csvParsingService.stream(new ByteArrayInputStream(upload.getBytes()), upload.getSize(), sink);
+            return;
+        }
+        forEachRow(upload.getChecksum(), upload.getSize(), () -> new ByteArrayInputStream(upload.getBytes()), sink);
+    }
+
+    private void forEachRow(String checksum, long size, Source source, Consumer<PanelConfig> sink)
+            throws IOException {
+        List<PanelConfig> cached;
+        synchronized (this) {
+            Entry entry = entries.get(checksum);
+            cached = entry != null ? entry.rows : null;
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            for (PanelConfig row : cached) {
+                sink.accept(row.copy());
+            }
+            return;
+        }
+        misses.incrementAndGet();
+        // Parse outside the lock; a concurrent miss on the same content just parses twice
+        Collector collector = new Collector(cacheProperties.getMaxEntryBytes());
+        try (InputStream in = source.open()) {
+            csvParsingService.stream(in, size, row -> {
+                collector.add(row);
+                sink.accept(row);
+            });
+        }
+        if (collector.rows != null) {
+            put(checksum, new Entry(List.copyOf(collector.rows), collector.weightBytes));
+        }
+    }
+
+    // Rough retained size of a parsed row: the object with its boxed and enum fields, plus its strings
+    // counted at two bytes per char (compact Latin-1 strings take less)
+    static long estimatedBytes(PanelConfig row) {
+        long bytes = 96;
+        for (String s : new String[] {row.getTitle(), row.getDatasource(), row.getQuery(), row.getVisualization(),
+                row.getUnit(), row.getThresholds(), row.getTimeFrom(), row.getTimeShift(), row.getColor()}) {
+            if (s != null) bytes += 40 + 2L * s.length();
+        }
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weightBytes;
+    }
+
+    private synchronized void put(String checksum, Entry entry) {
+        Entry previous = entries.put(checksum, entry);
+        if (previous != null) weightBytes -= previous.weightBytes;
+        weightBytes += entry.weightBytes;
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((weightBytes > cacheProperties.getMaxWeightBytes() || entries.size() > cacheProperties.getMaxEntries())
+                && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getValue() == entry) continue; // keep the entry just added
+            weightBytes -= eldest.getValue().weightBytes;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private record Entry(List<PanelConfig> rows, long weightBytes) {}
+
+    private interface Source {
+        InputStream open() throws IOException;
+    }
+
+    // Copies of the rows streamed so far, dropped once they outgrow a cache entry
+    private static final class Collector {
+        private final long maxBytes;
+        private List<PanelConfig> rows = new ArrayList<>();
+        private long weightBytes;
+
+        Collector(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        void add(PanelConfig row) {
+            if (rows == null) return;
+            weightBytes += estimatedBytes(row);
+            if (weightBytes > maxBytes) {
+                rows = null;
+            } else {
+                // Copied before the sink sees the row, so later changes to it do not reach the cache
+                rows.add(row.copy());
+            }
+        }
+    }
+}
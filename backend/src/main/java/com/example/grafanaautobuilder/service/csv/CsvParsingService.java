@@ -1,6 +1,8 @@
 package com.example.grafanaautobuilder.service.csv;
 
+import com.example.grafanaautobuilder.config.CsvProperties;
 import com.example.grafanaautobuilder.dto.PanelConfig;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -9,75 +11,164 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 @Service
 public class CsvParsingService {
     private static final Logger log = LoggerFactory.getLogger(CsvParsingService.class);
 
+    // Header row is read from the file and skipped
+    private static final CSVFormat HEADER_FORMAT = CSVFormat.DEFAULT
+            .builder()
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .setTrim(true)
+            .build();
+    // Chunks after the first cut carry no header; the decoder maps fields by index
+    private static final CSVFormat CHUNK_FORMAT = CSVFormat.DEFAULT
+            .builder()
+            .setTrim(true)
+            .build();
+
+    private final CsvProperties.Parse parseProperties;
+    private final ForkJoinPool pool;
+
+    public CsvParsingService(CsvProperties csvProperties) {
+        this.parseProperties = csvProperties.getParse();
+        int parallelism = parseProperties.getParallelism() > 0
+                ? parseProperties.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdown();
+    }
+
     public List<PanelConfig> parse(InputStream inputStream) throws IOException {
+        List<PanelConfig> list = new ArrayList<>();
+        stream(inputStream, list::add);
+        return list;
+    }
+
+    /**
+     * Parses an in-memory CSV, splitting it across the parse pool when it is at least
+     * {@code csv.parse.parallelThresholdBytes} long. Records come back in file order either way.
+     */
+    public List<PanelConfig> parse(byte[] data) throws IOException {
+        if (!isParallelCandidate(data.length)) {
+            return parse(new ByteArrayInputStream(data));
+        }
+        return parseParallel(data);
+    }
+
+    /**
+     * Decodes records one at a time and hands each to {@code sink} as soon as it is read.
+     * Nothing is retained here, so memory stays flat regardless of the number of rows;
+     * callers that need the whole file should use {@link #parse(InputStream)}.
+     *
+     * @return number of records delivered to the sink
+     */
+    public int stream(InputStream inputStream, Consumer<PanelConfig> sink) throws IOException {
         long start = System.currentTimeMillis();
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-             CSVParser parser = CSVFormat.DEFAULT
-                     .builder()
-                     .setHeader()
-                     .setSkipHeaderRecord(true)
-                     .setTrim(true)
-                     .build()
-                     .parse(reader)) {
-            List<PanelConfig> list = new ArrayList<>();
+             CSVParser parser = HEADER_FORMAT.parse(reader)) {
+            // Resolve header names to column indexes once for the whole file
+            PanelConfigDecoder decoder = PanelConfigDecoder.forHeader(parser.getHeaderMap());
+            int count = 0;
             for (CSVRecord r : parser) {
-                PanelConfig cfg = new PanelConfig();
-                cfg.setTitle(get(r, "title"));
-                cfg.setDatasource(get(r, "datasource"));
-                cfg.setQuery(get(r, "query"));
-                // Support multiple header variants mapping to visualization:
-                // visualization (preferred), panel_type, chart_type, viewType
-                String vis = firstNonBlank(
-                        get(r, "visualization"),
-                        get(r, "panel_type"),
-                        get(r, "chart_type"),
-                        get(r, "viewType")
-                );
-                cfg.setVisualization(vis);
-                cfg.setUnit(get(r, "unit"));
-                cfg.setThresholds(get(r, "thresholds"));
-                cfg.setW(parseIntOrNull(get(r, "w")));
-                cfg.setH(parseIntOrNull(get(r, "h")));
-                // Optional per-panel time overrides
-                cfg.setTimeFrom(get(r, "timeFrom"));
-                cfg.setTimeShift(get(r, "timeShift"));
-                // Optional explicit color override (hex or Grafana color name)
-                cfg.setColor(get(r, "color"));
-                list.add(cfg);
+                PanelConfig cfg = decoder.decode(r);
+                sink.accept(cfg);
+                count++;
             }
-            log.info("CSV parsed: {} records in {} ms", list.size(), (System.currentTimeMillis() - start));
-            return list;
+            log.info("CSV parsed: {} records in {} ms", count, (System.currentTimeMillis() - start));
+            return count;
         }
     }
 
-    private static Integer parseIntOrNull(String s) {
-        if (s == null || s.isBlank()) return null;
-        try { return Integer.parseInt(s.trim()); } catch (NumberFormatException e) { return null; }
+    /**
+     * Like {@link #stream(InputStream, Consumer)}, but inputs whose {@code sizeHint} reaches the
+     * parallel threshold are read fully and parsed in parallel before being delivered in order.
+     * That trades the flat memory profile of streaming for throughput on very large files.
+     */
+    public int stream(InputStream inputStream, long sizeHint, Consumer<PanelConfig> sink) throws IOException {
+        if (!isParallelCandidate(sizeHint)) {
+            return stream(inputStream, sink);
+        }
+        byte[] data;
+        try (InputStream in = inputStream) {
+            data = in.readAllBytes();
+        }
+        List<PanelConfig> rows = parse(data);
+        rows.forEach(sink);
+        return rows.size();
     }
 
-    private static String get(CSVRecord r, String name) {
-        try { return r.isMapped(name) ? r.get(name) : null; } catch (Exception e) { return null; }
+    private boolean isParallelCandidate(long sizeBytes) {
+        long threshold = parseProperties.getParallelThresholdBytes();
+        return threshold > 0 && sizeBytes >= threshold && pool.getParallelism() > 1;
     }
 
-    private static String firstNonBlank(String... values) {
-        if (values == null) return null;
-        for (String v : values) {
-            if (v != null) {
-                String t = v.trim();
-                if (!t.isBlank()) return t;
+    private List<PanelConfig> parseParallel(byte[] data) throws IOException {
+        long start = System.currentTimeMillis();
+        int headerEnd = CsvRecordBoundaries.endOfFirstRecord(data, 0);
+        PanelConfigDecoder decoder;
+        try (CSVParser headerParser = HEADER_FORMAT.parse(chunkReader(data, 0, headerEnd))) {
+            decoder = PanelConfigDecoder.forHeader(headerParser.getHeaderMap());
+        }
+
+        List<int[]> chunks = CsvRecordBoundaries.split(data, headerEnd, parseProperties.getChunkSizeBytes());
+        List<Callable<List<PanelConfig>>> tasks = new ArrayList<>(chunks.size());
+        for (int[] range : chunks) {
+            tasks.add(() -> decodeChunk(data, range[0], range[1], decoder));
+        }
+
+        List<PanelConfig> list = new ArrayList<>();
+        try {
+            // invokeAll returns futures in task order, so concatenation preserves file order and row numbers
+            for (Future<List<PanelConfig>> f : pool.invokeAll(tasks)) {
+                list.addAll(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("CSV parsing interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException("CSV parsing failed", cause);
+        }
+        log.info("CSV parsed in parallel: {} records from {} chunks in {} ms",
+                list.size(), chunks.size(), (System.currentTimeMillis() - start));
+        return list;
+    }
+
+    private static List<PanelConfig> decodeChunk(byte[] data, int from, int to, PanelConfigDecoder decoder)
+            throws IOException {
+        List<PanelConfig> out = new ArrayList<>();
+        try (CSVParser parser = CHUNK_FORMAT.parse(chunkReader(data, from, to))) {
+            for (CSVRecord r : parser) {
+                out.add(decoder.decode(r));
             }
         }
-        return null;
+        return out;
+    }
+
+    private static Reader chunkReader(byte[] data, int from, int to) {
+        return new StringReader(new String(data, from, to - from, StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,81 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds record boundaries in raw CSV bytes so a file can be cut into independently parseable chunks.
+ * Quote handling follows {@code CSVFormat.DEFAULT}: a quote only opens an encapsulated value at the
+ * start of a field, {@code ""} inside it is an escaped quote, and newlines inside quotes (multi-line
+ * {@code query} values) do not end the record. Working on bytes is safe for UTF-8 because the
+ * delimiter, quote and newline characters never occur inside multi-byte sequences.
+ */
+final class CsvRecordBoundaries {
+    private CsvRecordBoundaries() {}
+
+    /** Returns the offset just past the first record starting at {@code from}, or {@code data.length}. */
+    static int endOfFirstRecord(byte[] data, int from) {
+        List<Integer> cuts = scan(data, from, 0, 1);
+        return cuts.isEmpty() ? data.length : cuts.get(0);
+    }
+
+    /**
+     * Splits {@code data[from..]} into consecutive {@code [start, end)} ranges of roughly
+     * {@code targetSize} bytes, each ending on a record boundary.
+     */
+    static List<int[]> split(byte[] data, int from, int targetSize) {
+        List<int[]> chunks = new ArrayList<>();
+        int start = from;
+        for (int cut : scan(data, from, Math.max(1, targetSize), Integer.MAX_VALUE)) {
+            chunks.add(new int[]{start, cut});
+            start = cut;
+        }
+        if (start < data.length) {
+            chunks.add(new int[]{start, data.length});
+        }
+        return chunks;
+    }
+
+    // Single pass over the bytes; records a cut after a newline outside quotes once at least
+    // minGap bytes have passed since the previous cut.
+    private static List<Integer> scan(byte[] data, int from, int minGap, int maxCuts) {
+        List<Integer> cuts = new ArrayList<>();
+        boolean inQuotes = false;
+        boolean fieldStart = true;
+        int lastCut = from;
+        for (int i = from; i < data.length && cuts.size() < maxCuts; i++) {
+            byte b = data[i];
+            if (inQuotes) {
+                if (b == '"') {
+                    if (i + 1 < data.length && data[i + 1] == '"') {
+                        i++; // escaped quote
+                    } else {
+                        inQuotes = false;
+                    }
+                }
+                continue;
+            }
+            switch (b) {
+                case '"':
+                    if (fieldStart) inQuotes = true;
+                    fieldStart = false;
+                    break;
+                case ',':
+                    fieldStart = true;
+                    break;
+                case '\n':
+                    fieldStart = true;
+                    if (i + 1 - lastCut >= minGap) {
+                        lastCut = i + 1;
+                        cuts.add(lastCut);
+                    }
+                    break;
+                case '\r':
+                    break;
+                default:
+                    fieldStart = false;
+            }
+        }
+        return cuts;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * An uploaded CSV read exactly once: the multipart stream is pulled through an MD5 digest while
+ * being buffered, and the same byte array then backs the storage upload body and the CSV parser.
+ * Use this instead of calling {@code getBytes()}/{@code getInputStream()} on the multipart file
+ * for each consumer.
+ */
+public final class CsvUpload {
+    private final String originalFilename;
+    private final String contentType;
+    private final byte[] bytes;
+    private final String checksum;
+
+    private CsvUpload(String originalFilename, String contentType, byte[] bytes, String checksum) {
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.bytes = bytes;
+        this.checksum = checksum;
+    }
+
+    public static CsvUpload read(MultipartFile file) throws IOException {
+        MessageDigest md5 = newMd5();
+        byte[] bytes;
+        try (InputStream in = new DigestInputStream(file.getInputStream(), md5)) {
+            bytes = in.readAllBytes();
+        }
+        return new CsvUpload(file.getOriginalFilename(), file.getContentType(), bytes,
+                HexFormat.of().formatHex(md5.digest()));
+    }
+
+    /** Wraps bytes already read elsewhere, e.g. an entry of an uploaded zip. */
+    public static CsvUpload of(String originalFilename, String contentType, byte[] bytes) {
+        return new CsvUpload(originalFilename, contentType, bytes, HexFormat.of().formatHex(newMd5().digest(bytes)));
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /** The raw upload; shared with every consumer, do not modify. */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public long getSize() {
+        return bytes.length;
+    }
+
+    /** Lower-case hex MD5, same format as {@code DigestUtils.md5DigestAsHex}. */
+    public String getChecksum() {
+        return checksum;
+    }
+}
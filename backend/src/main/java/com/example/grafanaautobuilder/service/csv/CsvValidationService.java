@@ -1,115 +1,306 @@
 package com.example.grafanaautobuilder.service.csv;
 
+import com.example.grafanaautobuilder.config.CsvProperties;
+import com.example.grafanaautobuilder.dto.LoadBudget;
 import com.example.grafanaautobuilder.dto.PanelConfig;
 import com.example.grafanaautobuilder.dto.ValidationResult;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.dao.InvalidDataAccessResourceUsageException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 @Service
 public class CsvValidationService {
     private static final Logger log = LoggerFactory.getLogger(CsvValidationService.class);
 
-    private final CsvParsingService csvParsingService;
-    private final JdbcTemplate jdbcTemplate;
+    private final CsvParseCache csvParseCache;
+    private final QueryProbe queryProbe;
+    private final ValidationResultCache resultCache;
+    private final DatasourceRegistry datasourceRegistry;
+    private final CsvProperties.Validation validationProperties;
+    private final ExecutorService executor;
 
-    public CsvValidationService(CsvParsingService csvParsingService, JdbcTemplate jdbcTemplate) {
-        this.csvParsingService = csvParsingService;
-        this.jdbcTemplate = jdbcTemplate;
+    public CsvValidationService(CsvParseCache csvParseCache, QueryProbe queryProbe, ValidationResultCache resultCache,
+                                DatasourceRegistry datasourceRegistry, ValidationDataSource validationDataSource,
+                                CsvProperties csvProperties) {
+        this.csvParseCache = csvParseCache;
+        this.queryProbe = queryProbe;
+        this.resultCache = resultCache;
+        this.datasourceRegistry = datasourceRegistry;
+        this.validationProperties = csvProperties.getValidation();
+        int parallelism = validationProperties.getParallelism() > 0
+                ? validationProperties.getParallelism()
+                : validationDataSource.getMaximumPoolSize();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "csv-validate-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("CSV validation parallelism: {}", parallelism);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
     }
 
     public List<ValidationResult> validate(MultipartFile csvFile) throws IOException {
-        List<PanelConfig> rows = csvParsingService.parse(csvFile.getInputStream());
-        List<ValidationResult> results = new ArrayList<>();
+        return validate(csvFile, Map.of(), ValidationMode.EXECUTE);
+    }
 
+    /**
+     * Validates all rows concurrently on the bounded validation pool and returns results in row order.
+     * Each statement is limited by {@code csv.validation.statementTimeoutSeconds}; rows still pending
+     * when {@code csv.validation.deadlineSeconds} passes are cancelled and reported as errors.
+     *
+     * @param variables dashboard variable values substituted for {@code $name}/{@code ${name}} in queries
+     * @param mode      whether queries are executed or only described
+     */
+    public List<ValidationResult> validate(MultipartFile csvFile, Map<String, String> variables,
+                                           ValidationMode mode) throws IOException {
         // Use a default time window: now-7d .. now
         long to = Instant.now().toEpochMilli();
         long from = Instant.now().minusSeconds(7 * 24 * 3600L).toEpochMilli();
+        Map<String, String> vars = variables == null ? Map.of() : Map.copyOf(variables);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(validationProperties.getDeadlineSeconds());
+        RequestContext ctx = new RequestContext(SqlMacroExpander.Context.of(from, to, vars), vars, mode,
+                new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), deadline);
+
+        // Shares parsed rows with a following /upload of the same file; large files are streamed.
+        // Rows are submitted as they arrive so the first queries run while the rest are still being read.
+        List<RowTask> tasks = new ArrayList<>();
+        int[] row = {0};
+        csvParseCache.forEachRow(csvFile, cfg -> tasks.add(submit(++row[0], cfg, ctx)));
+
+        List<ValidationResult> results = new ArrayList<>(tasks.size());
+        for (RowTask task : tasks) {
+            results.add(task.await(deadline));
+        }
+        log.info("CSV validation completed: {} rows", results.size());
+        return results;
+    }
+
+    /**
+     * Builds the dashboard load budget from explain-mode results: the summed cost and rows of every
+     * panel query, checked against {@code csv.validation.explain.maxDashboardCost}.
+     */
+    public LoadBudget loadBudget(List<ValidationResult> results) {
+        double cost = 0;
+        long rows = 0;
+        for (ValidationResult r : results) {
+            if (r.getEstimatedCost() != null) cost += r.getEstimatedCost();
+            if (r.getEstimatedRows() != null) rows += r.getEstimatedRows();
+        }
+        return new LoadBudget(cost, rows, validationProperties.getExplain().getMaxDashboardCost());
+    }
+
+    /**
+     * Per-request state shared by all rows. {@code outcomes} makes duplicate queries within one file wait
+     * for the first one instead of probing again; {@code tableRows} memoizes pg_class lookups for the cost gate.
+     * {@code deadlineNanos} is the request deadline ({@link System#nanoTime()} based).
+     */
+    private record RequestContext(
+            SqlMacroExpander.Context macros,
+            Map<String, String> variables,
+            ValidationMode mode,
+            Map<ValidationResultCache.Key, CompletableFuture<ValidationResultCache.Outcome>> outcomes,
+            Map<String, Long> tableRows,
+            long deadlineNanos) {}
+
+    private RowTask submit(int row, PanelConfig cfg, RequestContext ctx) {
+        String title = cfg.getTitle() != null ? cfg.getTitle() : ("Row " + row);
+        AtomicReference<Statement> statement = new AtomicReference<>();
+        Future<ValidationResult> future = executor.submit(() -> validateRow(row, cfg, ctx, statement));
+        return new RowTask(row, title, future, statement);
+    }
+
+    /** One submitted row; can cancel its running statement when the request deadline passes. */
+    private record RowTask(int row, String title, Future<ValidationResult> future,
+                           AtomicReference<Statement> statement) {
+        ValidationResult await(long deadlineNanos) {
+            try {
+                long remaining = Math.max(0, deadlineNanos - System.nanoTime());
+                return future.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                cancel();
+                return ValidationResult.error(row, title, "Validation deadline exceeded");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return ValidationResult.error(row, title, "Validation interrupted");
+            } catch (ExecutionException e) {
+                return ValidationResult.error(row, title, e.getCause().getMessage());
+            }
+        }
+
+        private void cancel() {
+            future.cancel(true);
+            Statement st = statement.get();
+            if (st != null) {
+                try { st.cancel(); } catch (SQLException ignored) {}
+            }
+        }
+    }
+
+    private ValidationResult validateRow(int row, PanelConfig cfg, RequestContext ctx,
+                                         AtomicReference<Statement> statement) {
+        String title = cfg.getTitle() != null ? cfg.getTitle() : ("Row " + row);
+        String sql = cfg.getQuery();
 
-        for (int i = 0; i < rows.size(); i++) {
-            PanelConfig cfg = rows.get(i);
-            String title = cfg.getTitle() != null ? cfg.getTitle() : ("Row " + (i + 1));
-            String sql = cfg.getQuery();
+        if (sql == null || sql.isBlank()) {
+            return ValidationResult.error(row, title, "Empty query");
+        }
+
+        try {
+            // Replace Grafana macros and variables with literals suitable for Postgres
+            String prepared = SqlMacroExpander.expandStatement(sql, ctx.macros());
+            String uid = datasourceRegistry.uidFor(cfg);
+            datasourceRegistry.checkSupported(uid);
+            ValidationResultCache.Key key = new ValidationResultCache.Key(uid, ctx.mode(),
+                    ValidationResultCache.normalize(sql), ctx.variables());
+            ValidationResultCache.Outcome outcome =
+                    outcome(key, ctx, () -> probe(uid, prepared, ctx.mode(), statement));
+            if (outcome.error() != null) {
+                return ValidationResult.error(row, title, outcome.error());
+            }
+            QueryProbe.Description description = outcome.description();
+            QueryProbe.Plan plan = outcome.plan();
+            List<String> warnings = new ArrayList<>();
+            // Heuristic warning for time-series-like visualizations lacking time bounds
+            // Prefer the described column types over the alias substring check when available
+            boolean selectsTimeAlias = description != null ? description.timeColumn() : cfg.hasTimeAlias();
 
-            if (sql == null || sql.isBlank()) {
-                results.add(ValidationResult.error(i + 1, title, "Empty query"));
-                continue;
+            if (cfg.getVisualizationKind().isTimeBased() && !(cfg.usesTimeMacros() || selectsTimeAlias)) {
+                warnings.add("Time-based panel without $__timeFilter()/__timeFrom()/__timeTo() or time alias may show 'No data' for some dashboard ranges");
             }
 
+            List<String> costBreaches = plan != null ? costBreaches(uid, plan, ctx) : List.of();
+            ValidationResult result;
+            if (!costBreaches.isEmpty() && validationProperties.getExplain().isReject()) {
+                result = ValidationResult.error(row, title,
+                        "Rejected by cost gate: " + String.join("; ", costBreaches));
+            } else {
+                warnings.addAll(costBreaches);
+                result = warnings.isEmpty()
+                        ? ValidationResult.ok(row, title)
+                        : new ValidationResult(row, title, true, "WARN: " + String.join("; ", warnings));
+            }
+            if (plan != null) {
+                result.setEstimatedCost(plan.totalCost());
+                result.setEstimatedRows(plan.planRows());
+            }
+            if (description != null) {
+                result.setColumns(description.columns());
+                result.setTimeColumn(description.timeColumn());
+            }
+            return result;
+        } catch (DatasourceRegistry.UnsupportedDatasourceException ex) {
+            return new ValidationResult(row, title, true, "WARN: " + ex.getMessage());
+        } catch (Exception ex) {
+            String msg = ex.getMessage();
+            return ValidationResult.error(row, title, msg);
+        }
+    }
+
+    // The first row with a given key probes (through the shared cache); later duplicates wait for its outcome
+    private ValidationResultCache.Outcome outcome(ValidationResultCache.Key key, RequestContext ctx,
+                                                  Supplier<ValidationResultCache.Outcome> probe) throws Exception {
+        CompletableFuture<ValidationResultCache.Outcome> mine = new CompletableFuture<>();
+        CompletableFuture<ValidationResultCache.Outcome> first = ctx.outcomes().putIfAbsent(key, mine);
+        if (first != null) {
             try {
-                String prepared = prepareSql(sql, from, to);
-                // Wrap with subselect to safely apply LIMIT 1 regardless of original query
-                String wrapped = "SELECT * FROM (" + prepared + ") AS t LIMIT 1";
-                jdbcTemplate.queryForList(wrapped);
-                // Heuristic warning for time-series-like visualizations lacking time bounds
-                String vis = cfg.getVisualization();
-                boolean isTimeVis = (vis == null)
-                        || vis.equalsIgnoreCase("timeseries")
-                        || vis.equalsIgnoreCase("stat")
-                        || vis.equalsIgnoreCase("gauge");
-                String sqlLower = sql.toLowerCase(Locale.ROOT);
-                boolean mentionsTimeMacros = sqlLower.contains("$__timefilter")
-                        || sqlLower.contains("$__timefrom()")
-                        || sqlLower.contains("$__timeto()");
-                boolean selectsTimeAlias = sqlLower.contains(" as time") || sqlLower.contains("as \"time\"");
-
-                if (isTimeVis && !(mentionsTimeMacros || selectsTimeAlias)) {
-                    results.add(new ValidationResult(i + 1, title, true,
-                            "WARN: Time-based panel without $__timeFilter()/__timeFrom()/__timeTo() or time alias may show 'No data' for some dashboard ranges"));
-                } else {
-                    results.add(ValidationResult.ok(i + 1, title));
-                }
-            } catch (Exception ex) {
-                String msg = ex.getMessage();
-                results.add(ValidationResult.error(i + 1, title, msg));
+                // Bounded by the request deadline, so a hung first probe cannot hold this worker past it
+                long remaining = Math.max(0, ctx.deadlineNanos() - System.nanoTime());
+                return first.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                throw new TimeoutException("Validation deadline exceeded");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
             }
         }
-        log.info("CSV validation completed: {} rows", results.size());
-        return results;
+        try {
+            ValidationResultCache.Outcome outcome = resultCache.get(key, probe);
+            mine.complete(outcome);
+            return outcome;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
     }
 
-    private static String prepareSql(String sql, long fromMs, long toMs) {
-        // Replace Grafana macros with timestamps suitable for Postgres comparisons
-        // $__timeFrom() / $__timeTo() usually compare against TIMESTAMP columns
-        String isoFrom = toIso(fromMs);
-        String isoTo = toIso(toMs);
-        String s = sql;
-        s = s.replaceAll("(?i)\\$__timefrom\\(\\)", "TIMESTAMP '" + isoFrom + "'");
-        s = s.replaceAll("(?i)\\$__timeto\\(\\)", "TIMESTAMP '" + isoTo + "'");
-        // $__timeFilter(col) -> col BETWEEN from AND to using explicit matcher to avoid escaping pitfalls
-        Pattern p = Pattern.compile("(?i)\\$__timefilter\\(\\s*([^\\)]+)\\s*\\)");
-        Matcher m = p.matcher(s);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            String col = m.group(1);
-            String rep = col + " BETWEEN TIMESTAMP '" + isoFrom + "' AND TIMESTAMP '" + isoTo + "'";
-            m.appendReplacement(sb, Matcher.quoteReplacement(rep));
+    private ValidationResultCache.Outcome probe(String uid, String prepared, ValidationMode mode,
+                                                AtomicReference<Statement> statement) {
+        int timeout = validationProperties.getStatementTimeoutSeconds();
+        try {
+            QueryProbe.Description description = null;
+            QueryProbe.Plan plan = null;
+            switch (mode) {
+                case DESCRIBE -> description = queryProbe.describe(uid, prepared, statement, timeout);
+                case EXPLAIN -> plan = queryProbe.explain(uid, prepared, statement, timeout);
+                default -> queryProbe.execute(uid, prepared, statement, timeout);
+            }
+            return new ValidationResultCache.Outcome(description, plan, null);
+        } catch (InvalidDataAccessResourceUsageException e) {
+            // Rejected SQL (bad grammar, unknown table/column) stays rejected until the schema changes
+            return ValidationResultCache.Outcome.failed(e.getMessage());
         }
-        m.appendTail(sb);
-        s = sb.toString();
+    }
 
-        // Trim and remove trailing semicolon to allow subselect wrapping
-        s = s.trim();
-        if (s.endsWith(";")) s = s.substring(0, s.length() - 1);
-        return s;
+    // Reasons a planned query breaches the configured cost gate; empty when it passes
+    private List<String> costBreaches(String uid, QueryProbe.Plan plan, RequestContext ctx) {
+        CsvProperties.Explain limits = validationProperties.getExplain();
+        List<String> breaches = new ArrayList<>();
+        if (limits.getMaxPanelCost() > 0 && plan.totalCost() > limits.getMaxPanelCost()) {
+            breaches.add(String.format(Locale.ROOT, "estimated cost %.0f exceeds panel limit %.0f",
+                    plan.totalCost(), limits.getMaxPanelCost()));
+        }
+        for (String table : new LinkedHashSet<>(plan.seqScans())) {
+            boolean watched = limits.getWatchedTables().stream().anyMatch(table::equalsIgnoreCase);
+            long rows = limits.getLargeTableRows() > 0 ? tableRows(uid, table, ctx) : -1;
+            if (watched || (limits.getLargeTableRows() > 0 && rows >= limits.getLargeTableRows())) {
+                breaches.add("sequential scan on " + table + (rows >= 0 ? " (~" + rows + " rows)" : "")
+                        + " on every refresh");
+            }
+        }
+        return breaches;
     }
 
-    private static String toIso(long epochMs) {
-        return DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
-                .withLocale(Locale.ROOT)
-                .withZone(ZoneOffset.UTC)
-                .format(Instant.ofEpochMilli(epochMs));
+    // Memoized per request. The lookup runs outside the map, so rows on other tables are not held up behind it;
+    // two rows asking for the same table at once may both query it.
+    private long tableRows(String uid, String table, RequestContext ctx) {
+        String key = uid + "/" + table;
+        Long rows = ctx.tableRows().get(key);
+        if (rows == null) {
+            rows = queryProbe.estimatedTableRows(uid, table);
+            ctx.tableRows().putIfAbsent(key, rows);
+        }
+        return rows;
     }
 }
@@ -0,0 +1,283 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import com.example.grafanaautobuilder.client.GrafanaClient;
+import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.example.grafanaautobuilder.config.ValidationDataSourceProperties;
+import com.example.grafanaautobuilder.dto.PanelConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Maps the Grafana datasource UID of a panel to the database its query must be validated against.
+ * Rows without a UID, or with {@code grafana.defaultDatasourceUid}, use the {@link ValidationDataSource}.
+ * Any other UID gets its own small read-only pool, created on first use from
+ * {@code validation.datasource.targets.<uid>}. Without a url there, host, port and database come from Grafana's
+ * {@code /api/datasources/uid/{uid}} (looked up once and cached), but the credentials are only ever taken from the
+ * target entry: a UID without one is reported as not validated. Pools unused for {@code idleEvictSeconds} are
+ * closed.
+ */
+@Component
+public class DatasourceRegistry {
+    private static final Logger log = LoggerFactory.getLogger(DatasourceRegistry.class);
+
+    /** The UID names a datasource that cannot be probed over JDBC (e.g. Prometheus). */
+    public static class UnsupportedDatasourceException extends RuntimeException {
+        public UnsupportedDatasourceException(String message) {
+            super(message);
+        }
+    }
+
+    private record Connection(String url, String username, String password) {}
+
+    // Either a connection or the failure to report until retryAt
+    private record Resolution(Connection connection, RuntimeException failure, long retryAt) {}
+
+    private static final class Pool {
+        final HikariDataSource dataSource;
+        final JdbcTemplate jdbcTemplate;
+        final Gauge saturation;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile long lastUsed = System.nanoTime();
+
+        Pool(HikariDataSource dataSource, Gauge saturation) {
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+            this.saturation = saturation;
+        }
+    }
+
+    private final ValidationDataSource defaultDataSource;
+    private final GrafanaClient grafanaClient;
+    private final ValidationDataSourceProperties properties;
+    private final GrafanaProperties grafanaProperties;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CompletableFuture<Resolution>> resolutions = new ConcurrentHashMap<>();
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    public DatasourceRegistry(ValidationDataSource defaultDataSource, GrafanaClient grafanaClient,
+                              ValidationDataSourceProperties properties, GrafanaProperties grafanaProperties,
+                              MeterRegistry meterRegistry) {
+        this.defaultDataSource = defaultDataSource;
+        this.grafanaClient = grafanaClient;
+        this.properties = properties;
+        this.grafanaProperties = grafanaProperties;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("validation.datasource.pools", pools, Map::size).register(meterRegistry);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "validation-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        if (properties.getIdleEvictSeconds() > 0) {
+            long period = Math.max(1, properties.getIdleEvictSeconds() / 4);
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        evictor.shutdownNow();
+        pools.values().forEach(p -> p.dataSource.close());
+        pools.clear();
+    }
+
+    /** Runs {@code work} on the database behind {@code datasourceUid}. */
+    public <T> T execute(String datasourceUid, Function<JdbcTemplate, T> work) {
+        if (isDefault(datasourceUid)) return defaultDataSource.execute(work);
+        Connection connection = resolve(datasourceUid);
+        Pool pool = pools.compute(datasourceUid, (uid, existing) -> {
+            Pool p = existing != null ? existing : open(uid, connection);
+            p.inFlight.incrementAndGet();
+            return p;
+        });
+        try {
+            return work.apply(pool.jdbcTemplate);
+        } finally {
+            pool.lastUsed = System.nanoTime();
+            pool.inFlight.decrementAndGet();
+        }
+    }
+
+    /** The UID a row's query runs against: its own datasource, else {@code grafana.defaultDatasourceUid}, else "". */
+    public String uidFor(PanelConfig cfg) {
+        if (cfg.getDatasource() != null && !cfg.getDatasource().isBlank()) return cfg.getDatasource();
+        String defaultUid = grafanaProperties.getDefaultDatasourceUid();
+        return defaultUid != null ? defaultUid : "";
+    }
+
+    /**
+     * Fails fast when {@code datasourceUid} cannot be validated: {@link UnsupportedDatasourceException} for a
+     * non-SQL datasource, {@link IllegalStateException} when it is unknown or Grafana cannot be reached.
+     */
+    public void checkSupported(String datasourceUid) {
+        if (!isDefault(datasourceUid)) resolve(datasourceUid);
+    }
+
+    private boolean isDefault(String uid) {
+        if (uid == null || uid.isBlank()) return true;
+        if (properties.getTargets().containsKey(uid)) return false;
+        return uid.equals(grafanaProperties.getDefaultDatasourceUid());
+    }
+
+    private Connection resolve(String uid) {
+        CompletableFuture<Resolution> mine = new CompletableFuture<>();
+        CompletableFuture<Resolution> cached = resolutions.putIfAbsent(uid, mine);
+        if (cached != null) {
+            Resolution r = cached.join();
+            if (r.failure() == null || System.nanoTime() - r.retryAt() < 0) return unwrap(r);
+            // Retry a failed lookup; if another thread already replaced it, wait for that one instead
+            if (!resolutions.replace(uid, cached, mine)) return resolve(uid);
+        }
+        // Concurrent first uses of one UID wait here, so Grafana is asked once
+        Resolution r = lookup(uid);
+        mine.complete(r);
+        return unwrap(r);
+    }
+
+    private static Connection unwrap(Resolution r) {
+        if (r.failure() != null) throw r.failure();
+        return r.connection();
+    }
+
+    private Resolution lookup(String uid) {
+        try {
+            return new Resolution(connectionFor(uid), null, 0);
+        } catch (RuntimeException e) {
+            long retryAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(properties.getResolveRetrySeconds());
+            return new Resolution(null, e, retryAt);
+        }
+    }
+
+    private Connection connectionFor(String uid) {
+        ValidationDataSourceProperties.Target target = properties.getTargets().get(uid);
+        if (target != null && !isBlank(target.getUrl())) {
+            return new Connection(target.getUrl(), target.getUsername(), target.getPassword());
+        }
+
+        Map<String, Object> ds;
+        try {
+            ds = grafanaClient.getDatasource(uid);
+        } catch (HttpClientErrorException.NotFound e) {
+            throw new IllegalStateException("Unknown Grafana datasource '" + uid + "'");
+        } catch (RestClientException | IllegalStateException e) {
+            throw new IllegalStateException("Could not look up Grafana datasource '" + uid + "': " + e.getMessage());
+        }
+        String type = ds == null ? null : asString(ds.get("type"));
+        if (type == null || !type.toLowerCase(Locale.ROOT).contains("postgres")) {
+            throw new UnsupportedDatasourceException(
+                    "Datasource '" + uid + "' (" + type + ") is not a PostgreSQL datasource; query not validated");
+        }
+        // The host comes from Grafana, which any user can point anywhere; never send it our own credentials
+        if (target == null || (isBlank(target.getUsername()) && isBlank(target.getPassword()))) {
+            throw new UnsupportedDatasourceException("No credentials configured for datasource '" + uid
+                    + "' (validation.datasource.targets." + uid + "); query not validated");
+        }
+        Map<?, ?> jsonData = ds.get("jsonData") instanceof Map<?, ?> m ? m : Map.of();
+        String database = asString(jsonData.get("database"));
+        if (isBlank(database)) database = asString(ds.get("database"));
+        String url = jdbcUrl(uid, asString(ds.get("url")), database, asString(jsonData.get("sslmode")));
+        String username = !isBlank(target.getUsername()) ? target.getUsername() : asString(ds.get("user"));
+        log.info("Resolved Grafana datasource '{}' to {}", uid, url);
+        return new Connection(url, username, target.getPassword());
+    }
+
+    /**
+     * JDBC URL for the {@code url} field of a Grafana PostgreSQL datasource: {@code host}, {@code host:port},
+     * {@code [ipv6]:port} or a bare IPv6 address, optionally with a scheme and a path. A path stands in for a
+     * missing database; without either the datasource cannot be validated.
+     */
+    static String jdbcUrl(String uid, String grafanaUrl, String database, String sslMode) {
+        String authority = grafanaUrl == null ? "" : grafanaUrl.trim();
+        int scheme = authority.indexOf("://");
+        if (scheme >= 0) authority = authority.substring(scheme + 3);
+        String path = null;
+        int slash = authority.indexOf('/');
+        if (slash >= 0) {
+            path = authority.substring(slash + 1);
+            authority = authority.substring(0, slash);
+        }
+        // "::1" or "fe80::1:5432" without brackets is an address, not host:port
+        if (authority.indexOf(':') != authority.lastIndexOf(':') && !authority.startsWith("[")) {
+            authority = "[" + authority + "]";
+        }
+        if (authority.isBlank()) {
+            throw new UnsupportedDatasourceException(
+                    "Datasource '" + uid + "' has no host in Grafana; query not validated");
+        }
+        URI parsed;
+        try {
+            parsed = new URI(null, authority, null, null, null);
+        } catch (URISyntaxException e) {
+            throw new UnsupportedDatasourceException(
+                    "Datasource '" + uid + "' has an unusable url '" + grafanaUrl + "'; query not validated");
+        }
+        if (isBlank(parsed.getHost())) {
+            throw new UnsupportedDatasourceException(
+                    "Datasource '" + uid + "' has no host in Grafana; query not validated");
+        }
+        if (isBlank(database)) database = path;
+        if (isBlank(database)) {
+            throw new UnsupportedDatasourceException(
+                    "Datasource '" + uid + "' has no database in Grafana; query not validated");
+        }
+        String url = "jdbc:postgresql://" + parsed.getHost() + (parsed.getPort() >= 0 ? ":" + parsed.getPort() : "")
+                + "/" + URLEncoder.encode(database.trim(), StandardCharsets.UTF_8);
+        if (!isBlank(sslMode)) url += "?sslmode=" + URLEncoder.encode(sslMode.trim(), StandardCharsets.UTF_8);
+        return url;
+    }
+
+    private Pool open(String uid, Connection connection) {
+        HikariDataSource dataSource = ValidationDataSource.newPool("validation-" + uid, connection.url(),
+                connection.username(), connection.password(), properties.getTargetPoolSize(), 0,
+                defaultDataSource.getStatementTimeoutSeconds(), properties, meterRegistry);
+        log.info("Opened validation pool for datasource '{}'", uid);
+        return new Pool(dataSource, ValidationDataSource.registerSaturation(dataSource, meterRegistry));
+    }
+
+    void evictIdle() {
+        long idle = TimeUnit.SECONDS.toNanos(properties.getIdleEvictSeconds());
+        long now = System.nanoTime();
+        for (String uid : pools.keySet()) {
+            pools.computeIfPresent(uid, (k, p) -> {
+                if (p.inFlight.get() > 0 || now - p.lastUsed < idle) return p;
+                p.dataSource.close();
+                meterRegistry.remove(p.saturation);
+                log.info("Closed idle validation pool for datasource '{}'", k);
+                return null;
+            });
+        }
+    }
+
+    private static String asString(Object o) {
+        return o == null ? null : o.toString();
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import com.example.grafanaautobuilder.dto.PanelConfig;
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Header-to-column mapping for one CSV file, resolved once from the header row.
+ * Every {@link PanelConfig} field is bound to a column index (or -1 when the column is absent),
+ * and the visualization aliases are reduced to an ordered index list up front, so decoding a
+ * record is only indexed reads.
+ */
+final class PanelConfigDecoder {
+    // Header variants mapping to visualization, in order of preference
+    private static final String[] VISUALIZATION_ALIASES = {"visualization", "panel_type", "chart_type", "viewType"};
+
+    private final int title;
+    private final int datasource;
+    private final int query;
+    private final int[] visualization;
+    private final int unit;
+    private final int thresholds;
+    private final int w;
+    private final int h;
+    private final int timeFrom;
+    private final int timeShift;
+    private final int color;
+
+    private PanelConfigDecoder(Map<String, Integer> header) {
+        this.title = indexOf(header, "title");
+        this.datasource = indexOf(header, "datasource");
+        this.query = indexOf(header, "query");
+        this.visualization = indexesOf(header, VISUALIZATION_ALIASES);
+        this.unit = indexOf(header, "unit");
+        this.thresholds = indexOf(header, "thresholds");
+        this.w = indexOf(header, "w");
+        this.h = indexOf(header, "h");
+        this.timeFrom = indexOf(header, "timeFrom");
+        this.timeShift = indexOf(header, "timeShift");
+        this.color = indexOf(header, "color");
+    }
+
+    static PanelConfigDecoder forHeader(Map<String, Integer> header) {
+        return new PanelConfigDecoder(header == null ? Map.of() : header);
+    }
+
+    PanelConfig decode(CSVRecord r) {
+        PanelConfig cfg = new PanelConfig();
+        cfg.setTitle(get(r, title));
+        cfg.setDatasource(get(r, datasource));
+        cfg.setQuery(get(r, query));
+        cfg.setVisualization(firstNonBlank(r, visualization));
+        cfg.setUnit(get(r, unit));
+        cfg.setThresholds(get(r, thresholds));
+        cfg.setW(parseIntOrNull(get(r, w)));
+        cfg.setH(parseIntOrNull(get(r, h)));
+        // Optional per-panel time overrides
+        cfg.setTimeFrom(get(r, timeFrom));
+        cfg.setTimeShift(get(r, timeShift));
+        // Optional explicit color override (hex or Grafana color name)
+        cfg.setColor(get(r, color));
+        return cfg;
+    }
+
+    private static int indexOf(Map<String, Integer> header, String name) {
+        Integer idx = header.get(name);
+        return idx == null ? -1 : idx;
+    }
+
+    private static int[] indexesOf(Map<String, Integer> header, String[] names) {
+        return Arrays.stream(names)
+                .mapToInt(n -> indexOf(header, n))
+                .filter(i -> i >= 0)
+                .toArray();
+    }
+
+    // Short records (fewer values than header columns) read as missing rather than failing
+    private static String get(CSVRecord r, int idx) {
+        return (idx >= 0 && idx < r.size()) ? r.get(idx) : null;
+    }
+
+    private static String firstNonBlank(CSVRecord r, int[] indexes) {
+        for (int idx : indexes) {
+            String v = get(r, idx);
+            if (v != null) {
+                String t = v.trim();
+                if (!t.isBlank()) return t;
+            }
+        }
+        return null;
+    }
+
+    private static Integer parseIntOrNull(String s) {
+        if (s == null || s.isBlank()) return null;
+        try { return Integer.parseInt(s.trim()); } catch (NumberFormatException e) { return null; }
+    }
+}
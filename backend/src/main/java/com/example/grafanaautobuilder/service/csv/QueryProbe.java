@@ -0,0 +1,231 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import com.example.grafanaautobuilder.dto.ColumnInfo;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a macro-expanded panel query for validation on the database behind the panel's Grafana datasource UID
+ * (see {@link DatasourceRegistry}; a null UID means the default validation datasource).
+ * Every probe publishes its {@link Statement} through {@code statementRef} while it runs so a caller
+ * enforcing a deadline can cancel it, and applies the given statement timeout.
+ */
+@Component
+public class QueryProbe {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final DatasourceRegistry datasources;
+
+    public QueryProbe(DatasourceRegistry datasources) {
+        this.datasources = datasources;
+    }
+
+    /**
+     * Column names/types of a query and whether it yields a {@code time} column Grafana can use as the time axis
+     * (a timestamp or a unix epoch number).
+     */
+    public record Description(List<ColumnInfo> columns, boolean timeColumn) {}
+
+    /**
+     * Planner estimate for a query: total cost and rows of the top plan node, and every relation
+     * the plan reads with a sequential scan.
+     */
+    public record Plan(double totalCost, long planRows, List<String> seqScans) {}
+
+    /** Executes {@code SELECT * FROM (sql) LIMIT 1} and reads at most one row. */
+    public void execute(String datasourceUid, String sql, AtomicReference<Statement> statementRef,
+                        int timeoutSeconds) {
+        // Wrap with subselect to safely apply LIMIT 1 regardless of original query
+        String wrapped = "SELECT * FROM (" + sql + ") AS t LIMIT 1";
+        ExecuteCallback callback = new ExecuteCallback(wrapped, statementRef, timeoutSeconds);
+        datasources.execute(datasourceUid, jdbc -> jdbc.execute(callback));
+    }
+
+    /**
+     * Prepares the query and reads its result metadata without executing it. With the PostgreSQL
+     * driver this is a parse/describe round trip, so expensive aggregations are never run.
+     */
+    public Description describe(String datasourceUid, String sql, AtomicReference<Statement> statementRef,
+                                int timeoutSeconds) {
+        PreparedStatementCallback<Description> readMetaData = ps -> {
+            statementRef.set(ps);
+            try {
+                ps.setQueryTimeout(timeoutSeconds);
+                ResultSetMetaData md = ps.getMetaData();
+                if (md == null) return new Description(List.of(), false);
+                List<ColumnInfo> columns = new ArrayList<>(md.getColumnCount());
+                boolean timeColumn = false;
+                for (int i = 1; i <= md.getColumnCount(); i++) {
+                    String name = md.getColumnLabel(i);
+                    columns.add(new ColumnInfo(name, md.getColumnTypeName(i)));
+                    // Grafana's SQL datasources treat a column named "time" as the time axis
+                    if ("time".equalsIgnoreCase(name) && isTemporal(md.getColumnType(i))) timeColumn = true;
+                }
+                return new Description(columns, timeColumn);
+            } finally {
+                statementRef.set(null);
+            }
+        };
+        return datasources.execute(datasourceUid, jdbc -> jdbc.execute(new DescribeCreator(sql), readMetaData));
+    }
+
+    /** Runs {@code EXPLAIN (FORMAT JSON)} (planning only, the query is not executed). */
+    public Plan explain(String datasourceUid, String sql, AtomicReference<Statement> statementRef,
+                        int timeoutSeconds) {
+        ExplainCallback callback = new ExplainCallback("EXPLAIN (FORMAT JSON) " + sql, statementRef, timeoutSeconds);
+        String json = datasources.execute(datasourceUid, jdbc -> jdbc.execute(callback));
+        try {
+            JsonNode plan = MAPPER.readTree(json).path(0).path("Plan");
+            List<String> seqScans = new ArrayList<>();
+            collectSeqScans(plan, seqScans);
+            return new Plan(plan.path("Total Cost").asDouble(), plan.path("Plan Rows").asLong(), seqScans);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable EXPLAIN output", e);
+        }
+    }
+
+    /** Planner row estimate for a table ({@code pg_class.reltuples}), or -1 when unknown. */
+    public long estimatedTableRows(String datasourceUid, String relation) {
+        Long rows = datasources.execute(datasourceUid, jdbc -> jdbc.query(
+                "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)",
+                rs -> rs.next() ? rs.getLong(1) : null, relation));
+        return rows == null ? -1 : rows;
+    }
+
+    /**
+     * Digest of the user-visible schema (every column with its type) and of the latest Flyway migration,
+     * used to notice DDL that may change validation outcomes.
+     */
+    public String schemaFingerprint(String datasourceUid) {
+        return datasources.execute(datasourceUid, this::schemaFingerprint);
+    }
+
+    private String schemaFingerprint(JdbcTemplate jdbcTemplate) {
+        MessageDigest md5 = newMd5();
+        jdbcTemplate.query("SELECT table_schema, table_name, column_name, data_type FROM information_schema.columns"
+                        + " WHERE lower(table_schema) NOT IN ('pg_catalog', 'information_schema')"
+                        + " ORDER BY table_schema, table_name, column_name",
+                (RowCallbackHandler) rs -> {
+                    for (int i = 1; i <= 4; i++) {
+                        md5.update(String.valueOf(rs.getString(i)).getBytes(StandardCharsets.UTF_8));
+                        md5.update((byte) 0);
+                    }
+                });
+        try {
+            Integer rank = jdbcTemplate.queryForObject(
+                    "SELECT max(installed_rank) FROM flyway_schema_history", Integer.class);
+            md5.update(String.valueOf(rank).getBytes(StandardCharsets.UTF_8));
+        } catch (DataAccessException e) {
+            // No Flyway history table on this database; the column digest alone has to do
+        }
+        return HexFormat.of().formatHex(md5.digest());
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    private static void collectSeqScans(JsonNode node, List<String> out) {
+        if ("Seq Scan".equals(node.path("Node Type").asText()) && node.hasNonNull("Relation Name")) {
+            out.add(node.get("Relation Name").asText());
+        }
+        for (JsonNode child : node.path("Plans")) {
+            collectSeqScans(child, out);
+        }
+    }
+
+    // A timestamp, or a number Grafana reads as a unix epoch
+    private static boolean isTemporal(int sqlType) {
+        return switch (sqlType) {
+            case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE, Types.DATE,
+                 Types.BIGINT, Types.INTEGER, Types.NUMERIC, Types.DECIMAL, Types.DOUBLE, Types.REAL,
+                 Types.FLOAT -> true;
+            default -> false;
+        };
+    }
+
+    // SqlProvider keeps the SQL in translated error messages, as queryForList did
+    private record ExecuteCallback(String sql, AtomicReference<Statement> statementRef, int timeoutSeconds)
+            implements StatementCallback<Void>, SqlProvider {
+        @Override
+        public Void doInStatement(Statement st) throws SQLException {
+            statementRef.set(st);
+            try {
+                st.setQueryTimeout(timeoutSeconds);
+                st.setMaxRows(1);
+                try (ResultSet rs = st.executeQuery(sql)) {
+                    rs.next();
+                }
+                return null;
+            } finally {
+                statementRef.set(null);
+            }
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+    }
+
+    private record ExplainCallback(String sql, AtomicReference<Statement> statementRef, int timeoutSeconds)
+            implements StatementCallback<String>, SqlProvider {
+        @Override
+        public String doInStatement(Statement st) throws SQLException {
+            statementRef.set(st);
+            try {
+                st.setQueryTimeout(timeoutSeconds);
+                try (ResultSet rs = st.executeQuery(sql)) {
+                    return rs.next() ? rs.getString(1) : "[]";
+                }
+            } finally {
+                statementRef.set(null);
+            }
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+    }
+
+    private record DescribeCreator(String sql) implements PreparedStatementCreator, SqlProvider {
+        @Override
+        public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+            return con.prepareStatement(sql);
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+    }
+}
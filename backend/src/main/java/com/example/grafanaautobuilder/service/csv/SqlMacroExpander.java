@@ -0,0 +1,262 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rewrites Grafana SQL macros and dashboard variables into plain PostgreSQL in one left-to-right scan.
+ * All values that depend on the time range are formatted once in {@link Context}, so expanding a query
+ * is a single pass over its characters with no regex work.
+ *
+ * <p>Supported: {@code $__timeFilter(col)}, {@code $__timeFrom()}, {@code $__timeTo()},
+ * {@code $__timeGroup(col, interval[, fill])}, {@code $__timeGroupAlias(col, interval[, fill])},
+ * {@code $__unixEpochFilter(col)}, {@code $__unixEpochFrom()}, {@code $__unixEpochTo()},
+ * {@code $__interval}, {@code $__interval_ms}, {@code $__from}, {@code $__to} and dashboard variables
+ * written as {@code $name}, {@code ${name}}, {@code ${name:format}} or {@code [[name]]}.
+ * Unknown macros and variables are left untouched.
+ */
+public final class SqlMacroExpander {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withLocale(Locale.ROOT)
+            .withZone(ZoneOffset.UTC);
+    // Grafana derives $__interval from range / max data points, rounded to a readable step
+    private static final long MAX_DATA_POINTS = 1000;
+    private static final long[] INTERVAL_STEPS_MS = {
+            1_000, 5_000, 10_000, 15_000, 30_000, 60_000, 300_000, 600_000, 900_000, 1_800_000,
+            3_600_000, 10_800_000, 21_600_000, 43_200_000, 86_400_000
+    };
+
+    private SqlMacroExpander() {}
+
+    /** Time range, derived interval and variable values shared by every query expanded for one request. */
+    public static final class Context {
+        private final String timestampFrom;
+        private final String timestampTo;
+        private final String epochFrom;
+        private final String epochTo;
+        private final String fromMs;
+        private final String toMs;
+        private final long intervalMs;
+        private final String interval;
+        private final Map<String, String> variables;
+
+        private Context(long fromMs, long toMs, Map<String, String> variables) {
+            this.timestampFrom = "TIMESTAMP '" + TIMESTAMP.format(Instant.ofEpochMilli(fromMs)) + "'";
+            this.timestampTo = "TIMESTAMP '" + TIMESTAMP.format(Instant.ofEpochMilli(toMs)) + "'";
+            this.epochFrom = String.valueOf(fromMs / 1000);
+            this.epochTo = String.valueOf(toMs / 1000);
+            this.fromMs = String.valueOf(fromMs);
+            this.toMs = String.valueOf(toMs);
+            this.intervalMs = roundInterval((toMs - fromMs) / MAX_DATA_POINTS);
+            this.interval = formatDuration(intervalMs);
+            this.variables = variables == null ? Map.of() : Map.copyOf(variables);
+        }
+
+        public static Context of(long fromMs, long toMs, Map<String, String> variables) {
+            return new Context(fromMs, toMs, variables);
+        }
+    }
+
+    /**
+     * Expands macros and strips surrounding whitespace and a trailing semicolon, so the result can be
+     * wrapped in a subselect or prepared as a single statement.
+     */
+    public static String expandStatement(String sql, Context ctx) {
+        String s = expand(sql, ctx).trim();
+        if (s.endsWith(";")) s = s.substring(0, s.length() - 1);
+        return s;
+    }
+
+    public static String expand(String sql, Context ctx) {
+        if (sql == null) return null;
+        int n = sql.length();
+        StringBuilder out = new StringBuilder(n + 64);
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '$' && i + 1 < n) {
+                int next = sql.charAt(i + 1) == '{' ? expandBraced(sql, i, ctx, out) : expandDollar(sql, i, ctx, out);
+                if (next > i) {
+                    i = next;
+                    continue;
+                }
+            } else if (c == '[' && i + 1 < n && sql.charAt(i + 1) == '[') {
+                int close = sql.indexOf("]]", i + 2);
+                if (close > 0) {
+                    String value = ctx.variables.get(sql.substring(i + 2, close));
+                    if (value != null) {
+                        out.append(value);
+                        i = close + 2;
+                        continue;
+                    }
+                }
+            }
+            out.append(c);
+            i++;
+        }
+        return out.toString();
+    }
+
+    // ${name} or ${name:format}; returns the index after the token, or `start` when left as-is
+    private static int expandBraced(String sql, int start, Context ctx, StringBuilder out) {
+        int close = sql.indexOf('}', start + 2);
+        if (close < 0) return start;
+        String name = sql.substring(start + 2, close);
+        int colon = name.indexOf(':');
+        if (colon >= 0) name = name.substring(0, colon);
+        String value = variable(name, ctx);
+        if (value == null) return start;
+        out.append(value);
+        return close + 1;
+    }
+
+    // $__macro(...), $__variable or $name; returns the index after the token, or `start` when left as-is
+    private static int expandDollar(String sql, int start, Context ctx, StringBuilder out) {
+        int end = start + 1;
+        int n = sql.length();
+        if (!Character.isLetter(sql.charAt(end)) && sql.charAt(end) != '_') return start;
+        while (end < n && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) end++;
+        String name = sql.substring(start + 1, end);
+
+        if (end < n && sql.charAt(end) == '(' && name.startsWith("__")) {
+            int close = matchingParen(sql, end);
+            if (close < 0) return start;
+            List<String> args = splitArgs(sql, end + 1, close);
+            String expansion = expandFunction(name.substring(2), args, ctx);
+            if (expansion == null) return start;
+            out.append(expansion);
+            return close + 1;
+        }
+        String value = variable(name, ctx);
+        if (value == null) return start;
+        out.append(value);
+        return end;
+    }
+
+    private static String variable(String name, Context ctx) {
+        switch (name) {
+            case "__interval": return ctx.interval;
+            case "__interval_ms": return String.valueOf(ctx.intervalMs);
+            case "__from": return ctx.fromMs;
+            case "__to": return ctx.toMs;
+            default: return ctx.variables.get(name);
+        }
+    }
+
+    private static String expandFunction(String macro, List<String> args, Context ctx) {
+        // Macro names match case-insensitively, as before
+        switch (macro.toLowerCase(Locale.ROOT)) {
+            case "timefilter":
+                return arg(args, 0, macro) + " BETWEEN " + ctx.timestampFrom + " AND " + ctx.timestampTo;
+            case "timefrom":
+                return ctx.timestampFrom;
+            case "timeto":
+                return ctx.timestampTo;
+            case "timegroup":
+                return timeGroup(args, macro, ctx);
+            case "timegroupalias":
+                return timeGroup(args, macro, ctx) + " AS \"time\"";
+            case "unixepochfilter":
+                return arg(args, 0, macro) + " >= " + ctx.epochFrom + " AND " + arg(args, 0, macro) + " <= " + ctx.epochTo;
+            case "unixepochfrom":
+                return ctx.epochFrom;
+            case "unixepochto":
+                return ctx.epochTo;
+            default:
+                return null;
+        }
+    }
+
+    private static String timeGroup(List<String> args, String macro, Context ctx) {
+        String column = arg(args, 0, macro);
+        long seconds = Math.max(1, parseIntervalMs(arg(args, 1, macro), ctx) / 1000);
+        return "floor(extract(epoch from " + column + ")/" + seconds + ")*" + seconds;
+    }
+
+    private static String arg(List<String> args, int idx, String macro) {
+        if (idx >= args.size() || args.get(idx).isEmpty()) {
+            throw new IllegalArgumentException("Macro $__" + macro + " is missing argument " + (idx + 1));
+        }
+        return args.get(idx);
+    }
+
+    // Accepts '5m', 5m, 300 (seconds), 100ms or an interval variable
+    private static long parseIntervalMs(String raw, Context ctx) {
+        String s = raw;
+        if (s.length() >= 2 && s.charAt(0) == '\'' && s.charAt(s.length() - 1) == '\'') {
+            s = s.substring(1, s.length() - 1).trim();
+        }
+        if (s.equals("$__interval")) return ctx.intervalMs;
+        if (s.equals("$__interval_ms")) return ctx.intervalMs;
+        int unitStart = 0;
+        while (unitStart < s.length() && Character.isDigit(s.charAt(unitStart))) unitStart++;
+        if (unitStart == 0) throw new IllegalArgumentException("Invalid interval: " + raw);
+        long value = Long.parseLong(s.substring(0, unitStart));
+        switch (s.substring(unitStart)) {
+            case "ms": return value;
+            case "":
+            case "s": return value * 1000;
+            case "m": return value * 60_000;
+            case "h": return value * 3_600_000;
+            case "d": return value * 86_400_000;
+            case "w": return value * 604_800_000;
+            default: throw new IllegalArgumentException("Invalid interval: " + raw);
+        }
+    }
+
+    // Index of the ')' closing the '(' at `open`, skipping nested parens and single-quoted literals
+    private static int matchingParen(String sql, int open) {
+        int depth = 0;
+        boolean inQuote = false;
+        for (int i = open; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                inQuote = !inQuote;
+            } else if (!inQuote) {
+                if (c == '(') depth++;
+                else if (c == ')' && --depth == 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> splitArgs(String sql, int from, int to) {
+        List<String> args = new ArrayList<>(3);
+        int depth = 0;
+        boolean inQuote = false;
+        int argStart = from;
+        for (int i = from; i < to; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') inQuote = !inQuote;
+            else if (!inQuote && c == '(') depth++;
+            else if (!inQuote && c == ')') depth--;
+            else if (!inQuote && depth == 0 && c == ',') {
+                args.add(sql.substring(argStart, i).trim());
+                argStart = i + 1;
+            }
+        }
+        String last = sql.substring(argStart, to).trim();
+        if (!last.isEmpty() || !args.isEmpty()) args.add(last);
+        return args;
+    }
+
+    private static long roundInterval(long rawMs) {
+        for (long step : INTERVAL_STEPS_MS) {
+            if (rawMs <= step) return step;
+        }
+        return INTERVAL_STEPS_MS[INTERVAL_STEPS_MS.length - 1];
+    }
+
+    private static String formatDuration(long ms) {
+        if (ms % 86_400_000 == 0) return (ms / 86_400_000) + "d";
+        if (ms % 3_600_000 == 0) return (ms / 3_600_000) + "h";
+        if (ms % 60_000 == 0) return (ms / 60_000) + "m";
+        if (ms % 1000 == 0) return (ms / 1000) + "s";
+        return ms + "ms";
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import com.example.grafanaautobuilder.config.CsvProperties;
+import com.example.grafanaautobuilder.config.ValidationDataSourceProperties;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Connection pools used only for running user-supplied panel SQL, so a slow validation batch cannot starve
+ * the application pool that serves logins and metadata writes. Connections are read-only and, on PostgreSQL,
+ * carry a server-side {@code statement_timeout} of {@code csv.validation.statementTimeoutSeconds}, the same limit
+ * validation applies to each statement.
+ *
+ * <p>When {@code validation.datasource.replica.url} is set, queries go to the replica while its replay lag
+ * is below {@code maxLagSeconds}. The lag is measured in the background every {@code lagCheckSeconds}; a lagging
+ * or unreachable replica routes to the primary until the next check.
+ * Pool usage is published as {@code hikaricp.*} meters plus {@code validation.datasource.saturation}.
+ */
+@Component
+public class ValidationDataSource {
+    private static final Logger log = LoggerFactory.getLogger(ValidationDataSource.class);
+
+    // Idle replicas report an old replay timestamp, so treat "everything received is replayed" as no lag
+    private static final String LAG_SQL = "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0"
+            + " WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final HikariDataSource primary;
+    private final JdbcTemplate primaryTemplate;
+    private final HikariDataSource replica;
+    private final JdbcTemplate replicaTemplate;
+    private final ValidationDataSourceProperties.Replica replicaProperties;
+    private final int statementTimeoutSeconds;
+
+    private final ScheduledExecutorService lagChecker;
+    // Written by the lag checker (and by execute() when the replica fails), read on every query
+    private volatile boolean replicaUsable;
+    private volatile double replicaLagSeconds = Double.NaN;
+
+    public ValidationDataSource(ValidationDataSourceProperties properties, DataSourceProperties appDataSource,
+                                CsvProperties csvProperties, MeterRegistry meterRegistry) {
+        this.statementTimeoutSeconds = csvProperties.getValidation().getStatementTimeoutSeconds();
+        String url = isBlank(properties.getUrl()) ? appDataSource.determineUrl() : properties.getUrl();
+        String username = isBlank(properties.getUsername())
+                ? appDataSource.determineUsername() : properties.getUsername();
+        String password = isBlank(properties.getPassword())
+                ? appDataSource.determinePassword() : properties.getPassword();
+        this.primary = newPool("validation", url, username, password, properties.getMaximumPoolSize(), 1,
+                statementTimeoutSeconds, properties, meterRegistry);
+        registerSaturation(primary, meterRegistry);
+        this.primaryTemplate = new JdbcTemplate(primary);
+
+        this.replicaProperties = properties.getReplica();
+        if (!isBlank(replicaProperties.getUrl())) {
+            this.replica = newPool("validation-replica", replicaProperties.getUrl(),
+                    isBlank(replicaProperties.getUsername()) ? username : replicaProperties.getUsername(),
+                    isBlank(replicaProperties.getPassword()) ? password : replicaProperties.getPassword(),
+                    replicaProperties.getMaximumPoolSize(), 1, statementTimeoutSeconds, properties, meterRegistry);
+            registerSaturation(replica, meterRegistry);
+            this.replicaTemplate = new JdbcTemplate(replica);
+            Gauge.builder("validation.datasource.replica.lag", this, v -> v.replicaLagSeconds)
+                    .baseUnit("seconds").register(meterRegistry);
+            Gauge.builder("validation.datasource.replica.active", this, v -> v.replicaUsable ? 1 : 0)
+                    .register(meterRegistry);
+            this.lagChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "validation-replica-lag");
+                t.setDaemon(true);
+                return t;
+            });
+            // Queries use the primary until the first check has run
+            long period = Math.max(1, replicaProperties.getLagCheckSeconds());
+            lagChecker.scheduleWithFixedDelay(this::checkLag, 0, period, TimeUnit.SECONDS);
+        } else {
+            this.replica = null;
+            this.replicaTemplate = null;
+            this.lagChecker = null;
+        }
+        log.info("Validation datasource: pool size {}, replica {}", properties.getMaximumPoolSize(),
+                replica != null ? "enabled" : "disabled");
+    }
+
+    /** Read-only pool with the validation settings; also used by {@link DatasourceRegistry} for other UIDs. */
+    static HikariDataSource newPool(String name, String url, String username, String password, int size, int minIdle,
+                                    int statementTimeoutSeconds, ValidationDataSourceProperties properties,
+                                    MeterRegistry meterRegistry) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(size);
+        config.setMinimumIdle(minIdle);
+        config.setConnectionTimeout(properties.getConnectionTimeoutMs());
+        config.setReadOnly(true);
+        // Do not block startup on a database that is only needed for validation
+        config.setInitializationFailTimeout(-1);
+        if (url != null && url.startsWith("jdbc:postgresql:")) {
+            // The driver's read-only flag is not enforced in autocommit mode; make the session itself read-only
+            String init = "SET default_transaction_read_only = on";
+            if (statementTimeoutSeconds > 0) {
+                long timeoutMs = TimeUnit.SECONDS.toMillis(statementTimeoutSeconds);
+                init += "; SET statement_timeout = " + timeoutMs;
+            }
+            config.setConnectionInitSql(init);
+        }
+        config.setMetricRegistry(meterRegistry);
+        return new HikariDataSource(config);
+    }
+
+    static Gauge registerSaturation(HikariDataSource dataSource, MeterRegistry meterRegistry) {
+        return Gauge.builder("validation.datasource.saturation", dataSource, ValidationDataSource::saturation)
+                .tag("pool", dataSource.getPoolName()).register(meterRegistry);
+    }
+
+    // Share of the pool that is busy or being waited for; above 1 means requests are queueing
+    private static double saturation(HikariDataSource dataSource) {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) return 0;
+        return (pool.getActiveConnections() + pool.getThreadsAwaitingConnection())
+                / (double) dataSource.getMaximumPoolSize();
+    }
+
+    @PreDestroy
+    void close() {
+        if (lagChecker != null) lagChecker.shutdownNow();
+        primary.close();
+        if (replica != null) replica.close();
+    }
+
+    // Server-side statement_timeout of the validation pools, reused for the pools of other datasources
+    int getStatementTimeoutSeconds() {
+        return statementTimeoutSeconds;
+    }
+
+    /** Size of the primary validation pool; validation concurrency is derived from it. */
+    public int getMaximumPoolSize() {
+        return primary.getMaximumPoolSize();
+    }
+
+    /**
+     * Runs {@code work} against the replica when it is usable, else the primary. If the replica cannot hand out
+     * a connection, it is taken out of rotation until the next lag check and the work is retried on the primary.
+     */
+    public <T> T execute(Function<JdbcTemplate, T> work) {
+        if (!useReplica()) return work.apply(primaryTemplate);
+        try {
+            return work.apply(replicaTemplate);
+        } catch (DataAccessResourceFailureException e) {
+            log.warn("Validation replica unavailable, falling back to primary: {}", e.getMessage());
+            replicaUsable = false;
+            return work.apply(primaryTemplate);
+        }
+    }
+
+    private boolean useReplica() {
+        return replica != null && replicaUsable;
+    }
+
+    // Runs on the lag checker thread only
+    private void checkLag() {
+        boolean wasUsable = replicaUsable;
+        try {
+            Double lag = replicaTemplate.queryForObject(LAG_SQL, Double.class);
+            replicaLagSeconds = lag != null ? lag : 0;
+            replicaUsable = replicaLagSeconds <= replicaProperties.getMaxLagSeconds();
+        } catch (RuntimeException e) {
+            // Catch everything: an exception escaping would cancel the schedule
+            replicaLagSeconds = Double.NaN;
+            replicaUsable = false;
+            log.warn("Validation replica lag check failed: {}", e.getMessage());
+        }
+        if (wasUsable != replicaUsable) {
+            log.info("Validation queries now routed to {} (replica lag {}s)",
+                    replicaUsable ? "replica" : "primary", replicaLagSeconds);
+        }
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import java.util.Locale;
+
+/** How /api/dashboard/validate checks each panel query. */
+public enum ValidationMode {
+    /** Run the query wrapped in {@code LIMIT 1}. */
+    EXECUTE,
+    /** Prepare the query and read its result columns without running it. */
+    DESCRIBE,
+    /** Plan the query with {@code EXPLAIN (FORMAT JSON)} and gate it on estimated cost. */
+    EXPLAIN;
+
+    public static ValidationMode parse(String value) {
+        if (value == null || value.isBlank()) return EXECUTE;
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown validation mode: " + value);
+        }
+    }
+}
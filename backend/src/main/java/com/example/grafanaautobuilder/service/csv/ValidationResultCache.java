@@ -0,0 +1,271 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import com.example.grafanaautobuilder.config.CsvProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of database validation outcomes keyed by normalized SQL, variables, datasource UID and mode,
+ * so panel queries shared between files and users are probed once per {@code csv.validation.cache.ttlSeconds}.
+ * The whole cache is dropped when {@link QueryProbe#schemaFingerprint(String)} of a datasource changes (DDL or
+ * a new Flyway migration); each datasource's fingerprint is re-read at most every {@code schemaCheckSeconds}.
+ */
+@Component
+public class ValidationResultCache {
+    private static final Logger log = LoggerFactory.getLogger(ValidationResultCache.class);
+
+    /** Identity of a validation: two panels with equal keys get the same database outcome. */
+    public record Key(String datasourceUid, ValidationMode mode, String sql, Map<String, String> variables) {}
+
+    /**
+     * What the database said about a query: the probe result for the mode (description or plan, both null
+     * after a plain execution), or the error of a query the database rejected.
+     */
+    public record Outcome(QueryProbe.Description description, QueryProbe.Plan plan, String error) {
+        public static Outcome failed(String error) {
+            return new Outcome(null, null, error);
+        }
+    }
+
+    private final QueryProbe queryProbe;
+    private final CsvProperties.ResultCache cacheProperties;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped on invalidation so loads that started against the old schema are not stored
+    private long generation = 0;
+
+    private final Map<String, SchemaState> schemas = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ValidationResultCache(QueryProbe queryProbe, CsvProperties csvProperties, MeterRegistry meterRegistry) {
+        this.queryProbe = queryProbe;
+        this.cacheProperties = csvProperties.getValidation().getCache();
+
+        FunctionCounter.builder("csv.validation.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("csv.validation.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("csv.validation.cache.invalidations", invalidations, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("csv.validation.cache.entries", this, c -> c.size()).register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached outcome for {@code key}, or runs {@code loader} and caches its result.
+     * Exceptions thrown by the loader (timeouts, cancellation, lost connections) are not cached.
+     */
+    public Outcome get(Key key, Supplier<Outcome> loader) {
+        if (cacheProperties.getTtlSeconds() <= 0) return loader.get();
+        checkSchema(key.datasourceUid());
+        long gen;
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (cached != null && cached.expiresAt - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                return cached.outcome;
+            }
+            if (cached != null) entries.remove(key);
+            gen = generation;
+        }
+        misses.incrementAndGet();
+        // Probe outside the lock; concurrent requests missing on the same key just probe twice
+        Outcome outcome = loader.get();
+        put(key, outcome, gen);
+        return outcome;
+    }
+
+    /** Drops every cached outcome. */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        generation++;
+        invalidations.incrementAndGet();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Lower-cases and collapses whitespace outside literals, quoted identifiers, dollar-quoted bodies and Grafana
+     * variables, drops comments and strips a trailing semicolon, so formatting differences between otherwise
+     * identical queries share one entry. Case is only folded where PostgreSQL folds it too, and a line comment
+     * cannot swallow what followed it on the next line.
+     */
+    public static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            int end = commentEnd(sql, i);
+            if (end > i || Character.isWhitespace(c)) {
+                // A comment separates tokens like whitespace does
+                pendingSpace = out.length() > 0;
+                i = Math.max(end, i + 1);
+                continue;
+            }
+            if (pendingSpace) out.append(' ');
+            pendingSpace = false;
+            end = verbatimEnd(sql, i);
+            if (end > i) {
+                out.append(sql, i, end);
+                i = end;
+            } else {
+                out.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == ';' || out.charAt(end - 1) == ' ')) end--;
+        out.setLength(end);
+        return out.toString();
+    }
+
+    // End of a -- or (nested) /* */ comment starting at i, or i when none starts there
+    private static int commentEnd(String sql, int i) {
+        if (sql.startsWith("--", i)) {
+            int eol = sql.indexOf('\n', i);
+            return eol < 0 ? sql.length() : eol;
+        }
+        if (!sql.startsWith("/*", i)) return i;
+        int depth = 0;
+        int j = i;
+        while (j < sql.length()) {
+            if (sql.startsWith("/*", j)) {
+                depth++;
+                j += 2;
+            } else if (sql.startsWith("*/", j)) {
+                j += 2;
+                if (--depth == 0) return j;
+            } else {
+                j++;
+            }
+        }
+        return sql.length();
+    }
+
+    // End of a token at i whose case and spacing matter: a string literal, a quoted identifier, a dollar-quoted
+    // body, or a Grafana variable ($name, ${name}); i when none starts there
+    private static int verbatimEnd(String sql, int i) {
+        char c = sql.charAt(i);
+        boolean afterWord = i > 0 && isWordChar(sql.charAt(i - 1));
+        if (c == '\'') {
+            // E'...' strings take backslash escapes
+            boolean escapes = afterWord && Character.toLowerCase(sql.charAt(i - 1)) == 'e'
+                    && (i < 2 || !isWordChar(sql.charAt(i - 2)));
+            return quotedEnd(sql, i, '\'', escapes);
+        }
+        if (c == '"') return quotedEnd(sql, i, '"', false);
+        if (c != '$' || afterWord || i + 1 >= sql.length()) return i;
+        char next = sql.charAt(i + 1);
+        if (next == '{') {
+            int close = sql.indexOf('}', i);
+            return close < 0 ? sql.length() : close + 1;
+        }
+        int j = i + 1;
+        while (j < sql.length() && (Character.isLetterOrDigit(sql.charAt(j)) || sql.charAt(j) == '_')) j++;
+        if (j < sql.length() && sql.charAt(j) == '$' && !Character.isDigit(next)) {
+            // $$ or $tag$ opens a body that ends at the same delimiter
+            String delimiter = sql.substring(i, j + 1);
+            int close = sql.indexOf(delimiter, j + 1);
+            return close < 0 ? sql.length() : close + delimiter.length();
+        }
+        return j;
+    }
+
+    // End of a quoted token opened at i; a doubled quote stays inside it
+    private static int quotedEnd(String sql, int i, char quote, boolean escapes) {
+        int j = i + 1;
+        while (j < sql.length()) {
+            char c = sql.charAt(j);
+            if (escapes && c == '\\') {
+                j += 2;
+            } else if (c == quote && j + 1 < sql.length() && sql.charAt(j + 1) == quote) {
+                j += 2;
+            } else if (c == quote) {
+                return j + 1;
+            } else {
+                j++;
+            }
+        }
+        return sql.length();
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private synchronized void put(Key key, Outcome outcome, long gen) {
+        if (gen != generation) return;
+        long ttl = TimeUnit.SECONDS.toNanos(cacheProperties.getTtlSeconds());
+        entries.put(key, new Entry(outcome, System.nanoTime() + ttl));
+        Iterator<Key> it = entries.keySet().iterator();
+        while (entries.size() > cacheProperties.getMaxEntries() && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void checkSchema(String datasourceUid) {
+        SchemaState schema = schemas.get(datasourceUid);
+        if (schema == null) {
+            // Only datasources whose fingerprint could be read are remembered, so the map is bounded by the
+            // databases actually reachable rather than by the UIDs uploads mention
+            String current = fingerprint(datasourceUid);
+            if (current != null) schemas.putIfAbsent(datasourceUid, new SchemaState(current, System.nanoTime()));
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(Math.max(0, cacheProperties.getSchemaCheckSeconds()));
+        synchronized (schema) {
+            long now = System.nanoTime();
+            if (now - schema.checkedAt < interval) return;
+            schema.checkedAt = now;
+            String current = fingerprint(datasourceUid);
+            if (current == null) return;
+            if (!schema.fingerprint.equals(current)) {
+                log.info("Schema of datasource '{}' changed, clearing {} cached validation results",
+                        datasourceUid.isEmpty() ? "default" : datasourceUid, size());
+                invalidateAll();
+            }
+            schema.fingerprint = current;
+        }
+    }
+
+    // Null when it cannot be read; cached results are then kept
+    private String fingerprint(String datasourceUid) {
+        try {
+            return queryProbe.schemaFingerprint(datasourceUid);
+        } catch (RuntimeException e) {
+            log.warn("Could not read schema fingerprint, keeping cached validation results: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // Last fingerprint seen for one datasource; guarded by its own monitor
+    private static final class SchemaState {
+        String fingerprint;
+        long checkedAt;
+
+        SchemaState(String fingerprint, long checkedAt) {
+            this.fingerprint = fingerprint;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private record Entry(Outcome outcome, long expiresAt) {}
+}
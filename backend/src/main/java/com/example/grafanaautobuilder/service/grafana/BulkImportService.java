@@ -0,0 +1,284 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.example.grafanaautobuilder.client.GrafanaClient;
+import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.example.grafanaautobuilder.entity.FileMetadata;
+import com.example.grafanaautobuilder.repository.FileMetadataRepository;
+import com.example.grafanaautobuilder.service.csv.CsvUpload;
+import com.example.grafanaautobuilder.service.storage.SupabaseStorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Turns many CSVs into dashboards in one request (POST /api/dashboard/bulk). Each uploaded file is a CSV or a zip
+ * of CSVs; zip entries are read one at a time as workers free up, so only the files in progress are held in
+ * memory. Files are stored, parsed and built on {@code grafana.bulkImport.parallelism} workers, pushed to Grafana
+ * at most {@code grafana.http.maxInFlight} at a time, and reported as soon as each is done. The
+ * {@link FileMetadata} rows of all stored files are saved together once the last file is done; if the client goes
+ * away first, the rows stored so far are saved then, and files still being stored save their own row.
+ */
+@Service
+public class BulkImportService {
+    private static final Logger log = LoggerFactory.getLogger(BulkImportService.class);
+
+    // A CSV to import, or why it is not imported
+    private record Entry(String name, CsvUpload upload, String error) {
+    }
+
+    // A stored and built file, or the error that stopped it
+    private record Item(String name, String objectPath, DashboardService.Prepared prepared, String error) {
+    }
+
+    // Metadata rows of the files stored by one request, saved in batches; once closed, a newly stored file's row is
+    // saved right away since no batch save follows
+    private final class StoredFiles {
+        private final Queue<FileMetadata> pending = new ConcurrentLinkedQueue<>();
+        private volatile boolean closed;
+
+        void add(FileMetadata meta) {
+            pending.add(meta);
+            // Added before reading closed, and close() sets it before draining: one of the two saves this row
+            if (closed) save();
+        }
+
+        int close() {
+            closed = true;
+            return save();
+        }
+
+        // Saves the rows queued so far in one transaction; returns how many were saved
+        synchronized int save() {
+            List<FileMetadata> batch = new ArrayList<>();
+            for (FileMetadata meta; (meta = pending.poll()) != null; ) {
+                batch.add(meta);
+            }
+            if (batch.isEmpty()) return 0;
+            try {
+                fileRepo.saveAll(batch);
+                return batch.size();
+            } catch (DataAccessException e) {
+                log.error("Could not save metadata of {} bulk-imported files: {}", batch.size(), e.getMessage());
+                return 0;
+            }
+        }
+    }
+
+    private final DashboardService dashboardService;
+    private final GrafanaClient grafanaClient;
+    private final SupabaseStorageService storageService;
+    private final FileMetadataRepository fileRepo;
+    private final GrafanaProperties grafanaProperties;
+
+    public BulkImportService(DashboardService dashboardService,
+                             GrafanaClient grafanaClient,
+                             SupabaseStorageService storageService,
+                             FileMetadataRepository fileRepo,
+                             GrafanaProperties grafanaProperties) {
+        this.dashboardService = dashboardService;
+        this.grafanaClient = grafanaClient;
+        this.storageService = storageService;
+        this.fileRepo = fileRepo;
+        this.grafanaProperties = grafanaProperties;
+    }
+
+    /**
+     * Imports every CSV of {@code files} as a dashboard of {@code username}, named after its file. Emits one
+     * result per CSV as it finishes ({@code file}, {@code status} published/unchanged/failed, {@code uid},
+     * {@code title}, {@code grafanaUrl}, {@code storageObjectPath}, {@code error}), then a {@code summary}.
+     */
+    public Flux<Map<String, Object>> importFiles(List<MultipartFile> files, String username) {
+        GrafanaProperties.BulkImport bulk = grafanaProperties.getBulkImport();
+        int parallelism = Math.max(1, bulk.getParallelism());
+        int maxInFlight = Math.max(1, grafanaProperties.getHttp().getMaxInFlight());
+        AtomicInteger accepted = new AtomicInteger();
+        StoredFiles stored = new StoredFiles();
+        Map<String, Integer> counts = new ConcurrentHashMap<>();
+
+        return Flux.fromIterable(files)
+                .concatMap(file -> entries(file, bulk, accepted))
+                .flatMap(entry -> Mono.fromCallable(() -> prepare(entry, username, stored))
+                        .subscribeOn(Schedulers.boundedElastic()), parallelism)
+                .flatMap(this::publish, maxInFlight)
+                .doOnNext(result -> counts.merge((String) result.get("status"), 1, Integer::sum))
+                .concatWith(Mono.fromCallable(() -> summary(counts, stored.close()))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                // Client went away (or the stream failed): keep the rows of the files stored so far; prepares
+                // still running save their own once they have stored their file
+                .doFinally(signal -> {
+                    if (signal != SignalType.ON_COMPLETE) Schedulers.boundedElastic().schedule(stored::close);
+                });
+    }
+
+    // The CSVs of one uploaded file, read lazily as they are requested
+    private Flux<Entry> entries(MultipartFile file, GrafanaProperties.BulkImport bulk, AtomicInteger accepted) {
+        String name = file.getOriginalFilename() != null ? file.getOriginalFilename() : "file.csv";
+        if (!isZip(file)) {
+            return Mono.fromCallable(() -> {
+                        String rejected = reject(file.getSize(), bulk, accepted);
+                        return rejected != null ? new Entry(name, null, rejected) : new Entry(name, CsvUpload.read(file), null);
+                    })
+                    .onErrorResume(e -> Mono.just(new Entry(name, null, "Could not read file: " + e.getMessage())))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flux();
+        }
+        return Flux.<Entry, ZipInputStream>generate(() -> {
+                    try {
+                        return new ZipInputStream(file.getInputStream());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, (zip, sink) -> {
+                    try {
+                        ZipEntry zipEntry = nextCsv(zip);
+                        if (zipEntry == null) {
+                            sink.complete();
+                        } else {
+                            sink.next(readEntry(zip, zipEntry, bulk, accepted));
+                        }
+                    } catch (IOException e) {
+                        sink.next(new Entry(name, null, "Could not read zip: " + e.getMessage()));
+                        sink.complete();
+                    }
+                    return zip;
+                }, zip -> {
+                    try {
+                        zip.close();
+                    } catch (IOException ignored) {
+                    }
+                })
+                .onErrorResume(e -> Mono.just(new Entry(name, null, "Could not read zip: " + e.getMessage())))
+                .switchIfEmpty(Mono.fromSupplier(() -> new Entry(name, null, "No CSV files found in zip")))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static boolean isZip(MultipartFile file) {
+        String name = file.getOriginalFilename();
+        String type = file.getContentType();
+        return (name != null && name.toLowerCase(Locale.ROOT).endsWith(".zip"))
+                || (type != null && type.toLowerCase(Locale.ROOT).contains("zip"));
+    }
+
+    // Skips folders, other files and macOS resource forks
+    private static ZipEntry nextCsv(ZipInputStream zip) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            String base = name.substring(name.lastIndexOf('/') + 1);
+            if (!entry.isDirectory() && !name.startsWith("__MACOSX/") && !base.startsWith(".")
+                    && base.toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static Entry readEntry(ZipInputStream zip, ZipEntry zipEntry, GrafanaProperties.BulkImport bulk,
+                                   AtomicInteger accepted) throws IOException {
+        String name = zipEntry.getName();
+        String rejected = reject(zipEntry.getSize(), bulk, accepted);
+        if (rejected != null) return new Entry(name, null, rejected);
+        // The declared size may be missing or wrong, so read one byte past the limit to tell
+        byte[] bytes = zip.readNBytes((int) Math.min(bulk.getMaxFileBytes() + 1, Integer.MAX_VALUE - 8));
+        if (bytes.length > bulk.getMaxFileBytes()) {
+            // Counted by reject() on its declared size; it is not imported after all
+            accepted.decrementAndGet();
+            return new Entry(name, null, tooLarge(bulk));
+        }
+        return new Entry(name, CsvUpload.of(name, "text/csv", bytes), null);
+    }
+
+    // Why a file of {@code size} bytes (-1 if unknown) is not imported, or null; only files that are not
+    // rejected count toward maxFiles
+    private static String reject(long size, GrafanaProperties.BulkImport bulk, AtomicInteger accepted) {
+        if (size > bulk.getMaxFileBytes()) return tooLarge(bulk);
+        if (accepted.incrementAndGet() > bulk.getMaxFiles()) {
+            return "Not imported, a request takes at most " + bulk.getMaxFiles() + " files";
+        }
+        return null;
+    }
+
+    private static String tooLarge(GrafanaProperties.BulkImport bulk) {
+        return "Larger than " + bulk.getMaxFileBytes() + " bytes";
+    }
+
+    // Blocking: storage upload, parse, query description and build
+    private Item prepare(Entry entry, String username, StoredFiles stored) {
+        if (entry.error() != null) return new Item(entry.name(), null, null, entry.error());
+        CsvUpload upload = entry.upload();
+        String objectPath = null;
+        try {
+            objectPath = storageService.uploadCsv(null, username, upload);
+            stored.add(new FileMetadata(null, null, "uploads", objectPath, entry.name(), upload.getSize(),
+                    upload.getChecksum(), Instant.now()));
+            DashboardIdentity identity = DashboardIdentity.of(username, null, entry.name());
+            String title = dashboardService.titleFor(identity, null);
+            return new Item(entry.name(), objectPath, dashboardService.prepare(upload, title, identity), null);
+        } catch (Exception e) {
+            log.warn("Bulk import of '{}' failed: {}", entry.name(), e.getMessage());
+            return new Item(entry.name(), objectPath, null, e.getMessage());
+        }
+    }
+
+    private Mono<Map<String, Object>> publish(Item item) {
+        if (item.error() != null) return Mono.just(result(item, "failed", item.error()));
+        if (item.prepared().unchanged()) return Mono.just(result(item, "unchanged", null));
+        return grafanaClient.createOrUpdateDashboardReactive(item.prepared().dashboard())
+                // Recording the fingerprint is a database write, so leave the HTTP client's thread
+                .publishOn(Schedulers.boundedElastic())
+                .map(resp -> {
+                    dashboardService.recordPublished(item.prepared());
+                    return result(item, "published", null);
+                })
+                .onErrorResume(e -> {
+                    log.warn("Bulk import of '{}' failed in Grafana: {}", item.name(), e.getMessage());
+                    return Mono.just(result(item, "failed", e.getMessage()));
+                });
+    }
+
+    private Map<String, Object> result(Item item, String status, String error) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("file", item.name());
+        result.put("status", status);
+        if (item.prepared() != null) {
+            GrafanaDashboard dash = item.prepared().dashboard();
+            result.put("uid", dash.uid());
+            result.put("title", dash.title());
+            result.put("grafanaUrl", dashboardService.dashboardUrl(dash.uid()));
+        }
+        if (item.objectPath() != null) result.put("storageObjectPath", item.objectPath());
+        if (error != null) result.put("error", error);
+        return result;
+    }
+
+    private static Map<String, Object> summary(Map<String, Integer> counts, int metadataSaved) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("files", counts.values().stream().mapToInt(Integer::intValue).sum());
+        summary.put("published", counts.getOrDefault("published", 0));
+        summary.put("unchanged", counts.getOrDefault("unchanged", 0));
+        summary.put("failed", counts.getOrDefault("failed", 0));
+        summary.put("metadataSaved", metadataSaved);
+        return Map.of("summary", summary);
+    }
+}
@@ -1,70 +1,122 @@
 package com.example.grafanaautobuilder.service.grafana;
 
+import com.example.grafanaautobuilder.config.GrafanaProperties;
 import com.example.grafanaautobuilder.dto.PanelConfig;
+import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 @Service
 public class DashboardBuilder {
     public static final int GRID_COLUMNS = 24;
 
-    public Map<String, Object> buildDashboard(String title, List<Map<String, Object>> panels) {
-        Map<String, Object> dashboard = new LinkedHashMap<>();
-        dashboard.put("uid", UUID.randomUUID().toString().replaceAll("-", ""));
-        dashboard.put("title", title);
-        dashboard.put("schemaVersion", 38);
-        dashboard.put("panels", panels);
+    private final GrafanaProperties grafanaProperties;
+    private final ForkJoinPool pool;
+
+    public DashboardBuilder(GrafanaProperties grafanaProperties) {
+        this.grafanaProperties = grafanaProperties;
+        int parallelism = grafanaProperties.getPanelBuildParallelism() > 0
+                ? grafanaProperties.getPanelBuildParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /** A null uid gets a random one, i.e. a new dashboard in Grafana. */
+    public GrafanaDashboard buildDashboard(String uid, String title, List<GrafanaPanel> panels) {
+        if (uid == null) uid = UUID.randomUUID().toString().replaceAll("-", "");
+        // Time range configuration avoids the "no data" issue; fixed settings are written by DashboardJsonWriter
+        String from = "now-7d";
+        String refresh = "5m";
         List<String> tags = new ArrayList<>();
-        dashboard.put("tags", tags);
-        // Shared tooltip/crosshair for a modern analytical feel
-        dashboard.put("graphTooltip", 1);
-        
-        // Add time range configuration to fix "no data" issue
-        Map<String, Object> time = new HashMap<>();
-        time.put("from", "now-7d");
-        time.put("to", "now");
-        dashboard.put("time", time);
-        
-        // Add time picker configuration
-        Map<String, Object> timepicker = new HashMap<>();
-        timepicker.put("refresh_intervals", Arrays.asList("5s", "10s", "30s", "1m", "5m", "15m", "30m", "1h", "2h", "1d"));
-        timepicker.put("time_options", Arrays.asList("5m", "15m", "1h", "6h", "12h", "24h", "2d", "7d", "30d"));
-        dashboard.put("timepicker", timepicker);
-        
-        // Add templating for better data selection
-        Map<String, Object> templating = new HashMap<>();
-        templating.put("list", new ArrayList<>());
-        dashboard.put("templating", templating);
-        
-        // Add refresh configuration
-        dashboard.put("refresh", "5m");
-        
-        // Add timezone
-        dashboard.put("timezone", "browser");
 
         // Business preset: if the title suggests business analytics, apply a more executive-friendly configuration
         if (title != null && title.toLowerCase(Locale.ROOT).contains("business")) {
-            // Tag
             tags.add("business");
             // Longer default time range
-            time.put("from", "now-1y");
+            from = "now-1y";
             // Less frequent refresh
-            dashboard.put("refresh", "1h");
-            // Allow override back into payload
-            dashboard.put("time", time);
+            refresh = "1h";
         }
 
-        Map<String, Object> payload = new LinkedHashMap<>();
-        payload.put("dashboard", dashboard);
-        payload.put("overwrite", true);
-        return payload;
+        return new GrafanaDashboard(uid, title, tags, from, "now", refresh, panels);
     }
 
-    public List<Map<String, Object>> layoutPanels(List<PanelConfig> configs, PanelJsonBuilder panelBuilder) {
-        List<Map<String, Object>> panels = new ArrayList<>();
-        int x = 0, y = 0, rowHeight = 0, id = 1;
-        for (PanelConfig cfg : configs) {
+    /**
+     * Returns a sink that lays out each config as it arrives, so callers can feed rows straight from the CSV
+     * parser without first collecting them into a list. {@link PanelSink#build()} then materializes the panels.
+     */
+    public PanelSink panelSink(PanelJsonBuilder panelBuilder) {
+        return new PanelSink(panelBuilder);
+    }
+
+    /**
+     * Layout is sequential (each slot depends on the panels before it), but building a panel from its config and
+     * slot is independent of the others. Panels are built as their rows arrive, so a small dashboard never holds
+     * its configs. Once a dashboard reaches {@code grafana.parallelBuildThreshold} rows, the remaining rows are
+     * only laid out and buffered, and {@link #build()} builds them on the fork-join pool; the result keeps row
+     * order, ids and grid positions exactly as a sequential build would.
+     */
+    public final class PanelSink implements Consumer<PanelConfig> {
+        private final PanelJsonBuilder panelBuilder;
+        private final int threshold = grafanaProperties.getParallelBuildThreshold();
+        private final GridCursor cursor = new GridCursor();
+        private final List<GrafanaPanel> panels = new ArrayList<>();
+        // Rows past the threshold, waiting for build()
+        private final List<PanelConfig> configs = new ArrayList<>();
+        private final List<GridSlot> slots = new ArrayList<>();
+
+        private PanelSink(PanelJsonBuilder panelBuilder) {
+            this.panelBuilder = panelBuilder;
+        }
+
+        @Override
+        public void accept(PanelConfig cfg) {
+            GridSlot slot = cursor.place(cfg);
+            if (threshold <= 0 || panels.size() < threshold) {
+                panels.add(panelBuilder.buildPanel(cfg, slot.x(), slot.y(), slot.id()));
+            } else {
+                configs.add(cfg);
+                slots.add(slot);
+            }
+        }
+
+        public List<GrafanaPanel> build() {
+            if (!configs.isEmpty()) {
+                // An ordered parallel stream collects in encounter order
+                panels.addAll(pool.submit(() -> IntStream.range(0, configs.size()).parallel()
+                        .mapToObj(this::buildOne).toList()).join());
+                configs.clear();
+                slots.clear();
+            }
+            return panels;
+        }
+
+        private GrafanaPanel buildOne(int i) {
+            GridSlot slot = slots.get(i);
+            return panelBuilder.buildPanel(configs.get(i), slot.x(), slot.y(), slot.id());
+        }
+    }
+
+    /** Grid position and panel id assigned to one row. */
+    public record GridSlot(int x, int y, int id) {}
+
+    /**
+     * Left-to-right, top-to-bottom packing on the 24 column grid. Panels wrap to a new row when
+     * they would overflow; the row height is the tallest panel placed on it.
+     */
+    public static final class GridCursor {
+        private int x = 0, y = 0, rowHeight = 0, nextId = 1;
+
+        public GridSlot place(PanelConfig cfg) {
             int w = (cfg.getW() == null || cfg.getW() <= 0) ? 12 : cfg.getW();
             int h = (cfg.getH() == null || cfg.getH() <= 0) ? 8 : cfg.getH();
             if (x + w > GRID_COLUMNS) {
@@ -73,11 +125,10 @@ public class DashboardBuilder {
                 y += rowHeight;
                 rowHeight = 0;
             }
-            Map<String, Object> panel = panelBuilder.buildPanel(cfg, x, y, id++);
-            panels.add(panel);
+            GridSlot slot = new GridSlot(x, y, nextId++);
             x += w;
             rowHeight = Math.max(rowHeight, h);
+            return slot;
         }
-        return panels;
     }
 }
@@ -0,0 +1,24 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Which dashboard an upload updates: the uploader (null when anonymous) and the dashboard's name, i.e. the
+ * explicit title or else the CSV file name. Uploads with the same identity overwrite the same Grafana dashboard.
+ */
+public record DashboardIdentity(String owner, String name) {
+
+    /** Identity of an upload of {@code fileName}: named by the explicit {@code title}, else the file name. */
+    public static DashboardIdentity of(String owner, String title, String fileName) {
+        if (title != null && !title.isBlank()) return new DashboardIdentity(owner, title);
+        if (fileName == null) return new DashboardIdentity(owner, "Dashboard");
+        return new DashboardIdentity(owner, fileName.endsWith(".csv") ? fileName.substring(0, fileName.length() - 4) : fileName);
+    }
+
+    /** Grafana uid derived from the identity; same shape as the random uids (32 hex characters). */
+    public String uid() {
+        String seed = (owner == null ? "" : owner) + '\u0000' + name;
+        return UUID.nameUUIDFromBytes(seed.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An upload run in the background by {@link DashboardJobService}. Its state can be polled with
+ * {@link #snapshot()} or followed with {@link #events()}, which replays what already happened and then streams
+ * {@code status} and {@code stage} events and a final {@code result} event holding the snapshot.
+ */
+public final class DashboardJob implements UploadPipeline.Listener {
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String owner;
+    private final Instant createdAt = Instant.now();
+    private final long createdNanos = System.nanoTime();
+
+    private Status status = Status.QUEUED;
+    private final Map<UploadPipeline.Stage, Map<String, Object>> stages = new EnumMap<>(UploadPipeline.Stage.class);
+    private final Map<UploadPipeline.Stage, Long> stageStarts = new EnumMap<>(UploadPipeline.Stage.class);
+    private Map<String, Object> result;
+    private String error;
+    private Instant finishedAt;
+    private long finishedNanos;
+
+    private final Sinks.Many<ServerSentEvent<Map<String, Object>>> events = Sinks.many().replay().all();
+
+    DashboardJob(String owner) {
+        this.owner = owner;
+        emit("status", Map.of("status", status));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /** Email of the user who submitted the job; null when anonymous. */
+    public String getOwner() {
+        return owner;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    /** When the job succeeded or failed; null while it is queued or running. */
+    public synchronized Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /** Nanoseconds from submission until now, or until the job finished. */
+    synchronized long elapsedNanos() {
+        return (finishedAt != null ? finishedNanos : System.nanoTime()) - createdNanos;
+    }
+
+    /** Past and future events of this job; completes after the {@code result} event. */
+    public Flux<ServerSentEvent<Map<String, Object>>> events() {
+        return events.asFlux();
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("jobId", id);
+        snapshot.put("status", status);
+        snapshot.put("createdAt", createdAt);
+        if (finishedAt != null) snapshot.put("finishedAt", finishedAt);
+        Map<String, Object> stageStates = new LinkedHashMap<>();
+        stages.forEach((stage, state) -> stageStates.put(name(stage), new LinkedHashMap<>(state)));
+        snapshot.put("stages", stageStates);
+        if (result != null) snapshot.put("result", result);
+        if (error != null) snapshot.put("error", error);
+        return snapshot;
+    }
+
+    synchronized void running() {
+        status = Status.RUNNING;
+        emit("status", Map.of("status", status));
+    }
+
+    // The first outcome wins: shutdown may fail a job whose interrupted pipeline reports too
+    synchronized void succeeded(Map<String, Object> result) {
+        if (finishedAt != null) return;
+        this.result = result;
+        finish(Status.SUCCEEDED);
+    }
+
+    synchronized void failed(String error) {
+        if (finishedAt != null) return;
+        this.error = error;
+        finish(Status.FAILED);
+    }
+
+    private void finish(Status status) {
+        this.status = status;
+        finishedAt = Instant.now();
+        finishedNanos = System.nanoTime();
+        emit("result", snapshot());
+        events.tryEmitComplete();
+    }
+
+    @Override
+    public synchronized void started(UploadPipeline.Stage stage) {
+        stageStarts.put(stage, System.nanoTime());
+        stageEvent(stage, "running", null);
+    }
+
+    @Override
+    public synchronized void completed(UploadPipeline.Stage stage) {
+        stageEvent(stage, "completed", null);
+    }
+
+    @Override
+    public synchronized void failed(UploadPipeline.Stage stage, Exception error) {
+        stageEvent(stage, "failed", error.getMessage());
+    }
+
+    @Override
+    public synchronized void cancelled(UploadPipeline.Stage stage) {
+        stageEvent(stage, "cancelled", null);
+    }
+
+    private void stageEvent(UploadPipeline.Stage stage, String state, String error) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("state", state);
+        Long start = stageStarts.get(stage);
+        if (start != null && !"running".equals(state)) {
+            data.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        if (error != null) data.put("error", error);
+        stages.put(stage, data);
+
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("stage", name(stage));
+        event.putAll(data);
+        emit("stage", event);
+    }
+
+    // Callers hold the lock, so emissions are serialized
+    private void emit(String type, Map<String, Object> data) {
+        events.tryEmitNext(ServerSentEvent.<Map<String, Object>>builder(data).event(type).build());
+    }
+
+    private static String name(UploadPipeline.Stage stage) {
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
+}
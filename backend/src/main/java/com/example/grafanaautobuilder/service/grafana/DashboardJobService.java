@@ -0,0 +1,143 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.example.grafanaautobuilder.service.csv.CsvUpload;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs uploads as background {@link DashboardJob}s so the upload request returns at once. Jobs run the
+ * {@link UploadPipeline} on {@code grafana.uploadJobs.workers} threads with at most
+ * {@code grafana.uploadJobs.queueCapacity} waiting; beyond that {@link #submit} is refused. Finished jobs are
+ * dropped {@code grafana.uploadJobs.retentionSeconds} after they end, checked in the background. On shutdown,
+ * running jobs get {@code shutdownTimeoutSeconds} to finish; every job still unfinished then is failed, so
+ * clients following it get a final event.
+ */
+@Service
+public class DashboardJobService {
+    private static final Logger log = LoggerFactory.getLogger(DashboardJobService.class);
+
+    private final UploadPipeline uploadPipeline;
+    private final GrafanaProperties.UploadJobs properties;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService evictor;
+    private final Map<String, DashboardJob> jobs = new ConcurrentHashMap<>();
+
+    private final Timer succeeded;
+    private final Timer failed;
+    private final Counter rejected;
+
+    public DashboardJobService(UploadPipeline uploadPipeline, GrafanaProperties grafanaProperties,
+                               MeterRegistry meterRegistry) {
+        this.uploadPipeline = uploadPipeline;
+        this.properties = grafanaProperties.getUploadJobs();
+        int workers = Math.max(1, properties.getWorkers());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())), r -> {
+                    Thread t = new Thread(r, "upload-job-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-job-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, properties.getRetentionSeconds() / 4);
+        evictor.scheduleWithFixedDelay(this::evictFinished, period, period, TimeUnit.SECONDS);
+
+        Gauge.builder("dashboard.upload.jobs.queued", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("dashboard.upload.jobs.running", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+        // Submission to finish, queueing included
+        this.succeeded = Timer.builder("dashboard.upload.jobs").tag("outcome", "success").register(meterRegistry);
+        this.failed = Timer.builder("dashboard.upload.jobs").tag("outcome", "failure").register(meterRegistry);
+        this.rejected = Counter.builder("dashboard.upload.jobs.rejected").register(meterRegistry);
+        log.info("Upload jobs: {} workers, queue of {}", workers, properties.getQueueCapacity());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        evictor.shutdownNow();
+        // Queued jobs are not started; running ones get the timeout, then are interrupted
+        executor.getQueue().clear();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(properties.getShutdownTimeoutSeconds(), TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        jobs.values().forEach(job -> job.failed("Server shut down before the upload finished"));
+    }
+
+    /**
+     * Queues {@code upload} for {@link UploadPipeline#run}; {@code title} may be null to name the dashboard
+     * after the file.
+     *
+     * @throws RejectedExecutionException when the queue is full
+     */
+    public DashboardJob submit(CsvUpload upload, String username, String title) {
+        evictFinished();
+        DashboardJob job = new DashboardJob(username);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, upload, title));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            rejected.increment();
+            throw e;
+        }
+        log.info("Queued upload job {} for '{}'", job.getId(), upload.getOriginalFilename());
+        return job;
+    }
+
+    /** The job {@code id} if it exists and was submitted by {@code username}. */
+    public Optional<DashboardJob> find(String id, String username) {
+        evictFinished();
+        return Optional.ofNullable(jobs.get(id)).filter(job -> Objects.equals(job.getOwner(), username));
+    }
+
+    private void run(DashboardJob job, CsvUpload upload, String title) {
+        job.running();
+        try {
+            Map<String, Object> result = uploadPipeline.run(upload, job.getOwner(), title, job);
+            job.succeeded(result);
+            succeeded.record(job.elapsedNanos(), TimeUnit.NANOSECONDS);
+            log.info("Upload job {} completed, uid={}", job.getId(), result.get("uid"));
+        } catch (Exception e) {
+            log.error("Upload job {} failed: {}", job.getId(), e.getMessage(), e);
+            job.failed(e.getMessage());
+            failed.record(job.elapsedNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void evictFinished() {
+        Instant cutoff = Instant.now().minus(Duration.ofSeconds(properties.getRetentionSeconds()));
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(cutoff));
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams {@link GrafanaDashboard} and its panels straight to a {@link JsonGenerator}, so the payload is never
+ * materialized as a map tree. Panel templates are written in place with their slots filled.
+ * <p>
+ * Fixed key orders are those of the HashMaps the payload used to be built from, so the JSON (and with it
+ * {@link #fingerprint}) is byte-for-byte what the Map-based payload serialized to.
+ */
+public final class DashboardJsonWriter {
+    public static final int SCHEMA_VERSION = 38;
+
+    private static final List<String> REFRESH_INTERVALS =
+            List.of("5s", "10s", "30s", "1m", "5m", "15m", "30m", "1h", "2h", "1d");
+    private static final List<String> TIME_OPTIONS = List.of("5m", "15m", "1h", "6h", "12h", "24h", "2d", "7d", "30d");
+
+    // Typed panel keys, in the order they are appended when the template does not have them
+    private static final List<String> PANEL_KEYS = List.of(
+            "datasource", "targets", "type", "title", "id", "gridPos", "transparent", "options", "fieldConfig");
+    // Key order of fallback panels, which have no template
+    private static final List<String> FALLBACK_PANEL_KEYS = List.of(
+            "id", "type", "title", "gridPos", "transparent", "datasource", "targets", "options", "fieldConfig");
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private DashboardJsonWriter() {}
+
+    /** Writes the body of {@code POST /api/dashboards/db}. */
+    public static void writePayload(JsonGenerator gen, GrafanaDashboard dashboard, boolean overwrite)
+            throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName("dashboard");
+        writeDashboard(gen, dashboard);
+        gen.writeBooleanField("overwrite", overwrite);
+        gen.writeEndObject();
+    }
+
+    /** SHA-256 (hex) of the dashboard as {@link #writeDashboard} writes it, computed without buffering the JSON. */
+    public static String fingerprint(GrafanaDashboard dashboard) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (JsonGenerator gen = JSON.createGenerator(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+            writeDashboard(gen, dashboard);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static void writeDashboard(JsonGenerator gen, GrafanaDashboard d) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("uid", d.uid());
+        gen.writeStringField("title", d.title());
+        gen.writeNumberField("schemaVersion", SCHEMA_VERSION);
+        gen.writeArrayFieldStart("panels");
+        for (GrafanaPanel panel : d.panels()) writePanel(gen, panel);
+        gen.writeEndArray();
+        writeStrings(gen, "tags", d.tags());
+        // Shared tooltip/crosshair
+        gen.writeNumberField("graphTooltip", 1);
+        gen.writeObjectFieldStart("time");
+        gen.writeStringField("from", d.timeFrom());
+        gen.writeStringField("to", d.timeTo());
+        gen.writeEndObject();
+        gen.writeObjectFieldStart("timepicker");
+        writeStrings(gen, "time_options", TIME_OPTIONS);
+        writeStrings(gen, "refresh_intervals", REFRESH_INTERVALS);
+        gen.writeEndObject();
+        gen.writeObjectFieldStart("templating");
+        gen.writeArrayFieldStart("list");
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.writeStringField("refresh", d.refresh());
+        gen.writeStringField("timezone", "browser");
+        gen.writeEndObject();
+    }
+
+    public static void writePanel(JsonGenerator gen, GrafanaPanel p) throws IOException {
+        gen.writeStartObject();
+        Map<String, Object> template = p.template();
+        if (template == null) {
+            for (String key : FALLBACK_PANEL_KEYS) writeField(gen, p, key);
+            gen.writeEndObject();
+            return;
+        }
+        // Template keys keep their position; typed values replace them
+        for (Map.Entry<String, Object> e : template.entrySet()) {
+            if (writeField(gen, p, e.getKey())) continue;
+            gen.writeFieldName(e.getKey());
+            PanelTemplateRegistry.writeNode(gen, e.getValue(), p.templateValues());
+        }
+        for (String key : PANEL_KEYS) {
+            if (!template.containsKey(key)) writeField(gen, p, key);
+        }
+        gen.writeEndObject();
+    }
+
+    // Writes the typed value for key; false when the panel leaves that key to its template
+    private static boolean writeField(JsonGenerator gen, GrafanaPanel p, String key) throws IOException {
+        switch (key) {
+            case "datasource":
+                // Null drops the template's datasource too
+                if (p.datasource() != null) {
+                    gen.writeFieldName("datasource");
+                    writeDatasource(gen, p.datasource());
+                }
+                return true;
+            case "targets":
+                gen.writeArrayFieldStart("targets");
+                writeTarget(gen, p.target(), p.datasource());
+                gen.writeEndArray();
+                return true;
+            case "type":
+                gen.writeStringField("type", p.type());
+                return true;
+            case "title":
+                gen.writeStringField("title", p.title());
+                return true;
+            case "id":
+                gen.writeNumberField("id", p.id());
+                return true;
+            case "gridPos":
+                GrafanaPanel.GridPos pos = p.gridPos();
+                gen.writeObjectFieldStart("gridPos");
+                gen.writeNumberField("w", pos.w());
+                gen.writeNumberField("x", pos.x());
+                gen.writeNumberField("h", pos.h());
+                gen.writeNumberField("y", pos.y());
+                gen.writeEndObject();
+                return true;
+            case "transparent":
+                gen.writeBooleanField("transparent", true);
+                return true;
+            case "options":
+                if (p.options() == null) return false;
+                gen.writeFieldName("options");
+                writeOptions(gen, p.options(), p.templateValues());
+                return true;
+            case "fieldConfig":
+                if (p.fieldConfig() == null) return false;
+                gen.writeFieldName("fieldConfig");
+                gen.writeRawValue(p.fieldConfig().json());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void writeDatasource(JsonGenerator gen, GrafanaPanel.Datasource ds) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("uid", ds.uid());
+        if (ds.type() != null) gen.writeStringField("type", ds.type());
+        gen.writeEndObject();
+    }
+
+    private static void writeTarget(JsonGenerator gen, GrafanaPanel.Target t, GrafanaPanel.Datasource ds)
+            throws IOException {
+        gen.writeStartObject();
+        if (t.rawSql() != null) gen.writeStringField("rawSql", t.rawSql());
+        if (ds != null) {
+            gen.writeFieldName("datasource");
+            writeDatasource(gen, ds);
+        }
+        if (t.rawSql() != null) gen.writeStringField("format", t.format());
+        if (t.expr() != null) gen.writeStringField("expr", t.expr());
+        gen.writeStringField("refId", "A");
+        if (t.rawSql() != null) gen.writeBooleanField("rawQuery", true);
+        gen.writeEndObject();
+    }
+
+    private static void writeOptions(JsonGenerator gen, GrafanaPanel.Options o, Map<String, String> values)
+            throws IOException {
+        gen.writeStartObject();
+        Map<String, Object> base = o.base() != null ? o.base() : Map.of();
+        // Extras replace a base entry in place, or follow the base entries
+        for (Map.Entry<String, Object> e : base.entrySet()) {
+            String key = e.getKey();
+            if (key.equals("customColor") && o.customColor() != null) {
+                gen.writeStringField("customColor", o.customColor());
+            } else if (key.equals("useGradient") && o.useGradient() != null) {
+                gen.writeBooleanField("useGradient", o.useGradient());
+            } else {
+                gen.writeFieldName(key);
+                PanelTemplateRegistry.writeNode(gen, e.getValue(), values);
+            }
+        }
+        if (o.customColor() != null && !base.containsKey("customColor")) {
+            gen.writeStringField("customColor", o.customColor());
+        }
+        if (o.useGradient() != null && !base.containsKey("useGradient")) {
+            gen.writeBooleanField("useGradient", o.useGradient());
+        }
+        gen.writeEndObject();
+    }
+
+    // Rendered once per memoized FieldConfig and then written raw
+    static void writeFieldConfig(JsonGenerator gen, Map<String, Object> defaults, List<Map<String, Object>> overrides)
+            throws IOException {
+        gen.writeStartObject();
+        if (defaults != null) {
+            gen.writeFieldName("defaults");
+            PanelTemplateRegistry.writeNode(gen, defaults, Map.of());
+        }
+        if (overrides != null) {
+            gen.writeFieldName("overrides");
+            PanelTemplateRegistry.writeNode(gen, overrides, Map.of());
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeStrings(JsonGenerator gen, String field, List<String> values) throws IOException {
+        gen.writeArrayFieldStart(field);
+        for (String v : values) gen.writeString(v);
+        gen.writeEndArray();
+    }
+
+    /** Lets Jackson (e.g. a controller response) write a dashboard exactly as it is sent to Grafana. */
+    public static class Serializer extends StdSerializer<GrafanaDashboard> {
+        public Serializer() {
+            super(GrafanaDashboard.class);
+        }
+
+        @Override
+        public void serialize(GrafanaDashboard value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeDashboard(gen, value);
+        }
+    }
+}
@@ -1,44 +1,200 @@
 package com.example.grafanaautobuilder.service.grafana;
 
 import com.example.grafanaautobuilder.client.GrafanaClient;
+import com.example.grafanaautobuilder.config.CsvProperties;
+import com.example.grafanaautobuilder.config.GrafanaProperties;
 import com.example.grafanaautobuilder.dto.PanelConfig;
-import com.example.grafanaautobuilder.service.csv.CsvParsingService;
+import com.example.grafanaautobuilder.entity.PublishedDashboard;
+import com.example.grafanaautobuilder.repository.PublishedDashboardRepository;
+import com.example.grafanaautobuilder.service.csv.CsvParseCache;
+import com.example.grafanaautobuilder.service.csv.CsvUpload;
+import com.example.grafanaautobuilder.service.csv.DatasourceRegistry;
+import com.example.grafanaautobuilder.service.csv.QueryProbe;
+import com.example.grafanaautobuilder.service.csv.SqlMacroExpander;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 @Service
 public class DashboardService {
+    private static final Logger log = LoggerFactory.getLogger(DashboardService.class);
 
-    private final CsvParsingService csvParsingService;
+    private final CsvParseCache csvParseCache;
     private final PanelJsonBuilder panelJsonBuilder;
     private final DashboardBuilder dashboardBuilder;
     private final GrafanaClient grafanaClient;
+    private final QueryProbe queryProbe;
+    private final DatasourceRegistry datasourceRegistry;
+    private final GrafanaProperties grafanaProperties;
+    private final CsvProperties csvProperties;
+    private final PublishedDashboardRepository publishedDashboards;
 
-    public DashboardService(CsvParsingService csvParsingService,
+    public DashboardService(CsvParseCache csvParseCache,
                             PanelJsonBuilder panelJsonBuilder,
                             DashboardBuilder dashboardBuilder,
-                            GrafanaClient grafanaClient) {
-        this.csvParsingService = csvParsingService;
+                            GrafanaClient grafanaClient,
+                            QueryProbe queryProbe,
+                            DatasourceRegistry datasourceRegistry,
+                            GrafanaProperties grafanaProperties,
+                            CsvProperties csvProperties,
+                            PublishedDashboardRepository publishedDashboards) {
+        this.csvParseCache = csvParseCache;
         this.panelJsonBuilder = panelJsonBuilder;
         this.dashboardBuilder = dashboardBuilder;
         this.grafanaClient = grafanaClient;
+        this.queryProbe = queryProbe;
+        this.datasourceRegistry = datasourceRegistry;
+        this.grafanaProperties = grafanaProperties;
+        this.csvProperties = csvProperties;
+        this.publishedDashboards = publishedDashboards;
     }
 
-    public Map<String, Object> createDashboardFromCsv(MultipartFile csvFile, String title) throws IOException {
-        List<PanelConfig> configs = csvParsingService.parse(csvFile.getInputStream());
-        var panels = dashboardBuilder.layoutPanels(configs, panelJsonBuilder);
-        var payload = dashboardBuilder.buildDashboard(title, panels);
-        ResponseEntity<String> resp = grafanaClient.createOrUpdateDashboard(payload);
+    /**
+     * A dashboard built from an upload, ready to push. {@code fingerprint} is null and {@code unchanged} false
+     * when there is no identity.
+     */
+    public record Prepared(DashboardIdentity identity, GrafanaDashboard dashboard, String fingerprint,
+                           boolean unchanged) {
+    }
+
+    /**
+     * Parses and builds the dashboard of {@code identity} without pushing it; {@link Prepared#unchanged()} tells
+     * whether the push can be skipped. Push it with {@link GrafanaClient} and then call {@link #recordPublished}.
+     */
+    public Prepared prepare(CsvUpload upload, String title, DashboardIdentity identity) throws IOException {
+        DashboardBuilder.PanelSink panels = dashboardBuilder.panelSink(panelJsonBuilder);
+        csvParseCache.forEachRow(upload, rowSink(panels));
+        return prepare(identity, title, panels.build());
+    }
+
+    /** Remembers what was pushed for a prepared dashboard, so an identical re-upload can skip the push. */
+    public void recordPublished(Prepared prepared) {
+        DashboardIdentity identity = prepared.identity();
+        if (identity == null) return;
+        GrafanaDashboard dashboard = prepared.dashboard();
+        try {
+            publishedDashboards.save(new PublishedDashboard(dashboard.uid(), identity.owner(), identity.name(),
+                    dashboard.title() != null ? dashboard.title() : identity.name(), prepared.fingerprint(),
+                    Instant.now()));
+        } catch (DataAccessException e) {
+            // The push went through; the next identical upload just pushes again
+            log.warn("Could not record fingerprint of dashboard {}: {}", dashboard.uid(), e.getMessage());
+        }
+    }
+
+    /**
+     * The explicit {@code title} when given; otherwise the title last pushed for {@code identity}, so an unchanged
+     * re-upload stays unchanged, or else the identity's name with the current time.
+     */
+    public String titleFor(DashboardIdentity identity, String title) {
+        if (title != null && !title.isBlank()) return title;
+        return publishedTitle(identity).orElseGet(() ->
+                identity.name() + " - " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+    }
+
+    /** Browser URL of a dashboard in Grafana. */
+    public String dashboardUrl(String uid) {
+        String base = grafanaProperties.getUrl() != null ? grafanaProperties.getUrl().replaceAll("/+$$", "") : "http://localhost:3000";
+        return base + "/d/" + uid;
+    }
+
+    /** Title of the dashboard last pushed for {@code identity}, if any. */
+    public Optional<String> publishedTitle(DashboardIdentity identity) {
+        return publishedDashboards.findById(identity.uid()).map(PublishedDashboard::getTitle);
+    }
 
+    // Describes each row's query (when enabled) before it is laid out. Rows are described one at a time on the
+    // upload's thread; once a datasource cannot be reached, the remaining rows on it are not described.
+    private Consumer<PanelConfig> rowSink(Consumer<PanelConfig> build) {
+        if (!describesQueries()) return build;
+        long to = Instant.now().toEpochMilli();
+        SqlMacroExpander.Context macros = SqlMacroExpander.Context.of(to - 7 * 24 * 3600_000L, to, Map.of());
+        Set<String> unreachable = new HashSet<>();
+        return cfg -> {
+            describeTimeColumn(cfg, macros, unreachable);
+            build.accept(cfg);
+        };
+    }
+
+    private boolean describesQueries() {
+        String type = grafanaProperties.getDefaultDatasourceType();
+        return grafanaProperties.isDescribeQueries()
+                && (type == null || type.toLowerCase(Locale.ROOT).contains("postgres"));
+    }
+
+    // Rows from the parse cache are copies, so setting the fact here never reaches another upload
+    private void describeTimeColumn(PanelConfig cfg, SqlMacroExpander.Context macros, Set<String> unreachable) {
+        if (cfg.getQuery() == null || cfg.getQuery().isBlank()) return;
+        String uid = datasourceRegistry.uidFor(cfg);
+        if (unreachable.contains(uid)) return;
+        try {
+            datasourceRegistry.checkSupported(uid);
+            String sql = SqlMacroExpander.expandStatement(cfg.getQuery(), macros);
+            int timeout = csvProperties.getValidation().getStatementTimeoutSeconds();
+            QueryProbe.Description description = queryProbe.describe(uid, sql, new AtomicReference<>(), timeout);
+            cfg.setTimeColumn(description.timeColumn());
+        } catch (DatasourceRegistry.UnsupportedDatasourceException | IllegalStateException
+                 | DataAccessResourceFailureException | QueryTimeoutException e) {
+            // Not a SQL datasource, unknown, or down: the other rows on it would fail (or wait) the same way
+            unreachable.add(uid);
+            log.info("Not describing queries on datasource '{}' for this upload: {}", uid, e.getMessage());
+        } catch (RuntimeException e) {
+            // Leave it unknown; PanelJsonBuilder falls back to the SQL alias heuristic
+            log.debug("Could not describe query for panel '{}': {}", cfg.getTitle(), e.getMessage());
+        }
+    }
+
+    /**
+     * Pushes a prepared dashboard unless it is unchanged, and records it. The result has {@code requestPayload},
+     * {@code grafanaResponse} and {@code unchanged}.
+     */
+    public Map<String, Object> publish(Prepared prepared) {
         Map<String, Object> result = new HashMap<>();
-        result.put("requestPayload", payload);
+        result.put("requestPayload", prepared.dashboard());
+        if (prepared.unchanged()) {
+            result.put("grafanaResponse", null);
+            result.put("unchanged", true);
+            return result;
+        }
+
+        ResponseEntity<String> resp = grafanaClient.createOrUpdateDashboard(prepared.dashboard());
+        recordPublished(prepared);
+
         result.put("grafanaResponse", resp.getBody());
+        result.put("unchanged", false);
         return result;
     }
+
+    private Prepared prepare(DashboardIdentity identity, String title, List<GrafanaPanel> panels) {
+        GrafanaDashboard dashboard =
+                dashboardBuilder.buildDashboard(identity != null ? identity.uid() : null, title, panels);
+        if (identity == null) return new Prepared(null, dashboard, null, false);
+
+        String fingerprint = DashboardJsonWriter.fingerprint(dashboard);
+        PublishedDashboard last = publishedDashboards.findById(dashboard.uid()).orElse(null);
+        boolean unchanged = grafanaProperties.isSkipUnchangedDashboards() && last != null
+                && fingerprint.equals(last.getFingerprint());
+        if (unchanged) {
+            log.info("Dashboard {} unchanged since {}, skipping Grafana push", dashboard.uid(), last.getUpdatedAt());
+        }
+        return new Prepared(identity, dashboard, fingerprint, unchanged);
+    }
 }
@@ -0,0 +1,19 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.List;
+
+/**
+ * The dashboard sent to Grafana's {@code /api/dashboards/db}. Only the values that vary are held here; the fixed
+ * settings (schema version, time picker, timezone, ...) are written by {@link DashboardJsonWriter}, which is also
+ * used when the object goes through Jackson.
+ */
+@JsonSerialize(using = DashboardJsonWriter.Serializer.class)
+public record GrafanaDashboard(String uid,
+                               String title,
+                               List<String> tags,
+                               String timeFrom,
+                               String timeTo,
+                               String refresh,
+                               List<GrafanaPanel> panels) {}
@@ -0,0 +1,42 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.fasterxml.jackson.core.SerializableString;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One panel of the dashboard payload, built by {@link PanelJsonBuilder} and written by {@link DashboardJsonWriter}.
+ * When {@code template} is set, its keys are written too; a null {@code options} or {@code fieldConfig} keeps the
+ * template's value, a null {@code datasource} drops it so Grafana picks its default.
+ */
+public record GrafanaPanel(int id,
+                           String type,
+                           String title,
+                           GridPos gridPos,
+                           Datasource datasource,
+                           Target target,
+                           Options options,
+                           FieldConfig fieldConfig,
+                           Map<String, Object> template,
+                           Map<String, String> templateValues) {
+
+    public record GridPos(int x, int y, int w, int h) {}
+
+    /** {@code type} is omitted when null. */
+    public record Datasource(String uid, String type) {}
+
+    /** The panel's single query: {@code rawSql} and {@code format} for SQL datasources, {@code expr} otherwise. */
+    public record Target(String rawSql, String format, String expr) {}
+
+    /** Entries of {@code base} (a preset or the template's options) with the non-null extras taking precedence. */
+    public record Options(Map<String, Object> base, String customColor, Boolean useGradient) {}
+
+    /**
+     * Field defaults already merged over visualization-colors.json, and the overrides; a null part is omitted.
+     * Immutable and shared by every panel with the same visualization, unit, thresholds and color, so its JSON
+     * is rendered once.
+     */
+    public record FieldConfig(Map<String, Object> defaults, List<Map<String, Object>> overrides,
+                              SerializableString json) {}
+}
@@ -0,0 +1,114 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.example.grafanaautobuilder.dto.PanelConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of built panels keyed by the content of their CSV row and their place on the grid, so rebuilding a
+ * dashboard only builds the rows that changed. Panels are immutable and shared between dashboards. The whole
+ * cache is dropped when the panel templates or visualization-colors.json are reloaded.
+ */
+@Component
+public class PanelCache {
+    private static final Logger log = LoggerFactory.getLogger(PanelCache.class);
+
+    /**
+     * Everything a panel is built from: the row's values and its id and position. The row is copied, so later
+     * changes to the {@link PanelConfig} do not alter the key.
+     */
+    public record Key(String title, String datasource, String query, String visualization, String unit,
+                      String thresholds, Integer w, Integer h, String timeFrom, String timeShift, String color,
+                      Boolean timeColumn, int x, int y, int id) {
+        public static Key of(PanelConfig cfg, int x, int y, int id) {
+            return new Key(cfg.getTitle(), cfg.getDatasource(), cfg.getQuery(), cfg.getVisualization(),
+                    cfg.getUnit(), cfg.getThresholds(), cfg.getW(), cfg.getH(), cfg.getTimeFrom(),
+                    cfg.getTimeShift(), cfg.getColor(), cfg.getTimeColumn(), x, y, id);
+        }
+    }
+
+    private final GrafanaProperties grafanaProperties;
+
+    private final LinkedHashMap<Key, GrafanaPanel> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped on invalidation so panels built against old templates or colors are not stored
+    private long generation = 0;
+    // Template and color generations the cached panels were built with
+    private long templateGeneration;
+    private long colorGeneration;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public PanelCache(GrafanaProperties grafanaProperties, MeterRegistry meterRegistry) {
+        this.grafanaProperties = grafanaProperties;
+
+        FunctionCounter.builder("grafana.panel.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("grafana.panel.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("grafana.panel.cache.invalidations", invalidations, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("grafana.panel.cache.entries", this, c -> c.size()).register(meterRegistry);
+    }
+
+    /**
+     * Returns the panel cached for {@code key}, or runs {@code builder} and caches its result. The generations
+     * are those of {@link PanelTemplateRegistry} and {@link VisualizationColorConfigService}; a change of
+     * either clears the cache first.
+     */
+    public GrafanaPanel get(Key key, long templateGeneration, long colorGeneration, Supplier<GrafanaPanel> builder) {
+        if (grafanaProperties.getPanelCacheMaxEntries() <= 0) return builder.get();
+        long gen;
+        synchronized (this) {
+            if (templateGeneration != this.templateGeneration || colorGeneration != this.colorGeneration) {
+                log.info("Panel templates or colors changed, clearing {} cached panels", entries.size());
+                this.templateGeneration = templateGeneration;
+                this.colorGeneration = colorGeneration;
+                invalidateAll();
+            }
+            GrafanaPanel cached = entries.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            gen = generation;
+        }
+        misses.incrementAndGet();
+        // Build outside the lock; parallel builds missing on the same key just build twice
+        GrafanaPanel panel = builder.get();
+        put(key, panel, gen);
+        return panel;
+    }
+
+    /** Drops every cached panel. */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        generation++;
+        invalidations.incrementAndGet();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void put(Key key, GrafanaPanel panel, long gen) {
+        if (gen != generation) return;
+        entries.put(key, panel);
+        Iterator<Key> it = entries.keySet().iterator();
+        while (entries.size() > grafanaProperties.getPanelCacheMaxEntries() && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
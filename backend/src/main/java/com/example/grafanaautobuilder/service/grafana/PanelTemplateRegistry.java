@@ -0,0 +1,234 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Panel JSON templates, read and parsed once into immutable trees. A panel keeps a reference to its template and
+ * {@link #writeNode} fills the {@code {{slot}}} placeholders while the dashboard is serialized, so building a panel
+ * does no I/O, string templating, JSON parsing or copying.
+ *
+ * <p>Templates are named after what they apply to: a CSV visualization alias ({@code echarts-bar.json}), a Grafana
+ * panel type ({@code volkovlabs-echarts-panel.json}) or the catch-all {@code universal-panel.json}; the most specific
+ * one wins, so several aliases of one Grafana type can have their own template. With
+ * {@code grafana.panelTemplateDir} set, the directory can be re-scanned every {@code panelTemplateReloadSeconds}.
+ */
+@Component
+public class PanelTemplateRegistry {
+    private static final Logger log = LoggerFactory.getLogger(PanelTemplateRegistry.class);
+    private static final String UNIVERSAL = "universal-panel";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** A string value containing placeholders, split into literal text and slot names (odd indices). */
+    private record Slot(List<String> parts) {}
+
+    private final GrafanaProperties grafanaProperties;
+    private volatile Map<String, Map<String, Object>> templates;
+    private volatile long version;
+    // Bumped on every reload so anything derived from the templates can tell it is stale
+    private volatile long generation;
+
+    private final Object reloadLock = new Object();
+    private long checkedAt;
+
+    public PanelTemplateRegistry(GrafanaProperties grafanaProperties) {
+        this.grafanaProperties = grafanaProperties;
+        this.templates = load();
+        this.version = dirVersion();
+        this.checkedAt = System.nanoTime();
+    }
+
+    /**
+     * The template for the row's visualization alias, else its Grafana panel type, else the catch-all; null when
+     * none applies. The tree is shared and immutable; write it with {@link #writeNode}.
+     */
+    public Map<String, Object> find(String visualization, String panelType) {
+        reloadIfChanged();
+        Map<String, Map<String, Object>> current = templates;
+        Map<String, Object> template = null;
+        if (visualization != null) template = current.get(visualization.toLowerCase(Locale.ROOT));
+        if (template == null) template = current.get(panelType);
+        if (template == null) template = current.get(UNIVERSAL);
+        return template;
+    }
+
+    /** Changes whenever the templates are reloaded; re-checks the directory like {@link #find}. */
+    public long getGeneration() {
+        reloadIfChanged();
+        return generation;
+    }
+
+    /**
+     * Streams a template node (or any plain JSON tree of maps, lists and scalars) with its slots filled from
+     * {@code values}; unknown placeholders are left as written.
+     */
+    static void writeNode(JsonGenerator gen, Object node, Map<String, String> values) throws IOException {
+        if (node instanceof Map<?, ?> map) {
+            gen.writeStartObject();
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                gen.writeFieldName(String.valueOf(e.getKey()));
+                writeNode(gen, e.getValue(), values);
+            }
+            gen.writeEndObject();
+        } else if (node instanceof List<?> list) {
+            gen.writeStartArray();
+            for (Object v : list) writeNode(gen, v, values);
+            gen.writeEndArray();
+        } else if (node instanceof Slot slot) {
+            StringBuilder sb = new StringBuilder();
+            List<String> parts = slot.parts();
+            for (int i = 0; i < parts.size(); i++) {
+                String part = parts.get(i);
+                if (i % 2 == 0) {
+                    sb.append(part);
+                } else {
+                    String value = values.get(part);
+                    sb.append(value != null ? value : "{{" + part + "}}");
+                }
+            }
+            gen.writeString(sb.toString());
+        } else if (node == null) {
+            gen.writeNull();
+        } else if (node instanceof String s) {
+            gen.writeString(s);
+        } else if (node instanceof SerializableString s) {
+            // Pre-escaped constant, e.g. a generated script
+            gen.writeString(s);
+        } else if (node instanceof Boolean b) {
+            gen.writeBoolean(b);
+        } else if (node instanceof Integer n) {
+            gen.writeNumber(n);
+        } else if (node instanceof Long n) {
+            gen.writeNumber(n);
+        } else if (node instanceof Double n) {
+            gen.writeNumber(n);
+        } else if (node instanceof BigDecimal n) {
+            gen.writeNumber(n);
+        } else if (node instanceof BigInteger n) {
+            gen.writeNumber(n);
+        } else if (node instanceof Number n) {
+            gen.writeNumber(n.toString());
+        } else {
+            gen.writeString(node.toString());
+        }
+    }
+
+    private void reloadIfChanged() {
+        int interval = grafanaProperties.getPanelTemplateReloadSeconds();
+        if (interval <= 0 || isBlank(grafanaProperties.getPanelTemplateDir())) return;
+        synchronized (reloadLock) {
+            long now = System.nanoTime();
+            if (now - checkedAt < TimeUnit.SECONDS.toNanos(interval)) return;
+            checkedAt = now;
+            long current = dirVersion();
+            if (current == version) return;
+            templates = load();
+            version = current;
+            generation++;
+        }
+    }
+
+    // Changes whenever a template file is added, removed or modified
+    private long dirVersion() {
+        if (isBlank(grafanaProperties.getPanelTemplateDir())) return 0;
+        try (Stream<Path> files = Files.list(Paths.get(grafanaProperties.getPanelTemplateDir()))) {
+            return files.filter(p -> p.toString().endsWith(".json"))
+                    .mapToLong(p -> {
+                        try {
+                            return Files.getLastModifiedTime(p).toMillis() * 31 + p.getFileName().hashCode();
+                        } catch (IOException e) {
+                            return 0;
+                        }
+                    })
+                    .sum();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private Map<String, Map<String, Object>> load() {
+        String dir = grafanaProperties.getPanelTemplateDir();
+        String pattern = isBlank(dir)
+                ? "classpath*:panel-templates/*.json"
+                : "file:" + dir.replaceAll("/+$", "") + "/*.json";
+        Map<String, Map<String, Object>> loaded = new LinkedHashMap<>();
+        try {
+            for (Resource resource : new PathMatchingResourcePatternResolver().getResources(pattern)) {
+                String name = resource.getFilename();
+                if (name == null) continue;
+                try (InputStream is = resource.getInputStream()) {
+                    Map<String, Object> tree = MAPPER.readValue(is, new TypeReference<LinkedHashMap<String, Object>>() {});
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> compiled = (Map<String, Object>) compile(tree);
+                    loaded.put(name.substring(0, name.length() - ".json".length()).toLowerCase(Locale.ROOT), compiled);
+                } catch (IOException e) {
+                    // A broken template is skipped; rows needing it fall back to a less specific one
+                    log.warn("Skipping unreadable panel template {}: {}", name, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list panel templates ({}): {}", pattern, e.getMessage());
+        }
+        log.info("Loaded {} panel template(s): {}", loaded.size(), loaded.keySet());
+        return Collections.unmodifiableMap(loaded);
+    }
+
+    // Freezes the parsed tree and turns placeholder strings into slots
+    private static Object compile(Object node) {
+        if (node instanceof Map<?, ?> map) {
+            Map<String, Object> out = new LinkedHashMap<>();
+            map.forEach((k, v) -> out.put((String) k, compile(v)));
+            return Collections.unmodifiableMap(out);
+        }
+        if (node instanceof List<?> list) {
+            List<Object> out = new ArrayList<>(list.size());
+            for (Object v : list) out.add(compile(v));
+            return Collections.unmodifiableList(out);
+        }
+        if (node instanceof String s && s.contains("{{")) {
+            List<String> parts = new ArrayList<>();
+            int pos = 0;
+            while (true) {
+                int open = s.indexOf("{{", pos);
+                int close = open < 0 ? -1 : s.indexOf("}}", open + 2);
+                if (close < 0) {
+                    parts.add(s.substring(pos));
+                    break;
+                }
+                parts.add(s.substring(pos, open));
+                parts.add(s.substring(open + 2, close));
+                pos = close + 2;
+            }
+            return parts.size() == 1 ? s : new Slot(List.copyOf(parts));
+        }
+        return node;
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+}
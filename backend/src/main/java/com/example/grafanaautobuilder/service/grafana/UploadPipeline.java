@@ -0,0 +1,151 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.example.grafanaautobuilder.entity.FileMetadata;
+import com.example.grafanaautobuilder.repository.FileMetadataRepository;
+import com.example.grafanaautobuilder.service.csv.CsvUpload;
+import com.example.grafanaautobuilder.service.storage.SupabaseStorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The stages of one CSV upload: store the file in Supabase, save its {@link FileMetadata}, build the dashboard
+ * and push it to Grafana. Run inline by /api/dashboard/upload and on the job pool by {@link DashboardJobService};
+ * a {@link Listener} is told as each stage starts and ends. Stages run on Reactor's bounded elastic pool while
+ * the caller waits for the result.
+ */
+@Service
+public class UploadPipeline {
+    private static final Logger log = LoggerFactory.getLogger(UploadPipeline.class);
+
+    public enum Stage { STORAGE, METADATA, BUILD, PUBLISH }
+
+    /** Progress of a pipeline run; called on the threads running the stages, possibly concurrently. */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        default void started(Stage stage) {
+        }
+
+        default void completed(Stage stage) {
+        }
+
+        default void failed(Stage stage, Exception error) {
+        }
+
+        /** The stage was abandoned because another stage failed. */
+        default void cancelled(Stage stage) {
+        }
+    }
+
+    private final DashboardService dashboardService;
+    private final SupabaseStorageService storageService;
+    private final FileMetadataRepository fileRepo;
+
+    public UploadPipeline(DashboardService dashboardService,
+                          SupabaseStorageService storageService,
+                          FileMetadataRepository fileRepo) {
+        this.dashboardService = dashboardService;
+        this.storageService = storageService;
+        this.fileRepo = fileRepo;
+    }
+
+    /**
+     * Runs every stage for {@code upload} and returns
+     * { uid, title, grafanaUrl, grafanaResponse, unchanged, storageBucket, storageObjectPath }.
+     * {@code title} may be null to name the dashboard after the file. Storage (then metadata) and the build run
+     * concurrently; the push starts once both succeeded, so the latency is the slower branch plus the push.
+     */
+    public Map<String, Object> run(CsvUpload upload, String username, String title, Listener listener)
+            throws Exception {
+        // The same user uploading under the same title (or file name) updates the same dashboard
+        DashboardIdentity identity = DashboardIdentity.of(username, title, upload.getOriginalFilename());
+
+        // Save CSV to Supabase storage and persist metadata (userId unknown -> null). Started now and never
+        // cancelled, so a failed build still leaves the upload recorded, as when the stages ran in sequence.
+        CompletableFuture<String> storing = stage(Stage.STORAGE, listener,
+                () -> storageService.uploadCsv(null, username, upload))
+                .flatMap(objectPath -> stage(Stage.METADATA, listener, () -> fileRepo.save(new FileMetadata(
+                        null,
+                        null,
+                        "uploads",
+                        objectPath,
+                        upload.getOriginalFilename() != null ? upload.getOriginalFilename() : "file.csv",
+                        upload.getSize(),
+                        upload.getChecksum(),
+                        Instant.now()
+                ))).thenReturn(objectPath))
+                .toFuture();
+
+        Mono<DashboardService.Prepared> built = stage(Stage.BUILD, listener, () -> {
+            // A re-upload keeps the dashboard's generated title, so an unchanged file stays unchanged
+            String computedTitle = dashboardService.titleFor(identity, title);
+            log.info("Computed dashboard title: {}", computedTitle);
+            return dashboardService.prepare(upload, computedTitle, identity);
+        });
+
+        // zip fails on the first error: a failed storage upload cancels the build, and nothing is pushed
+        Mono<Map<String, Object>> pipeline = Mono.zip(Mono.fromFuture(storing, true), built)
+                .flatMap(stored -> stage(Stage.PUBLISH, listener, () -> dashboardService.publish(stored.getT2()))
+                        .map(result -> response(stored.getT1(), stored.getT2(), result)));
+        try {
+            return pipeline.block();
+        } catch (RuntimeException e) {
+            // block() wraps checked exceptions
+            if (Exceptions.unwrap(e) instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    private Map<String, Object> response(String objectPath, DashboardService.Prepared prepared,
+                                         Map<String, Object> result) {
+        // Best-effort URL using the uid we sent; Grafana may override, but this still helps UX.
+        GrafanaDashboard dash = prepared.dashboard();
+        Map<String, Object> response = new HashMap<>();
+        response.put("uid", dash.uid());
+        response.put("title", dash.title());
+        response.put("grafanaUrl", dashboardService.dashboardUrl(dash.uid()));
+        response.put("grafanaResponse", result.get("grafanaResponse"));
+        // True when the dashboard matched the last push and Grafana was not called
+        response.put("unchanged", result.get("unchanged"));
+        // also include storage info
+        response.put("storageBucket", "uploads");
+        response.put("storageObjectPath", objectPath);
+        return response;
+    }
+
+    // Runs a blocking stage on the elastic pool; cancelling it interrupts the stage's thread
+    private static <T> Mono<T> stage(Stage stage, Listener listener, Callable<T> work) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        return Mono.defer(() -> {
+                    listener.started(stage);
+                    return Mono.fromCallable(() -> {
+                        try {
+                            return work.call();
+                        } catch (Exception e) {
+                            // The interrupt of a cancelled stage surfaces here; nobody is waiting for it
+                            if (cancelled.get()) return null;
+                            throw e;
+                        }
+                    });
+                })
+                .doOnSuccess(value -> listener.completed(stage))
+                .doOnError(Exception.class, e -> listener.failed(stage, e))
+                .doOnCancel(() -> {
+                    cancelled.set(true);
+                    listener.cancelled(stage);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+}
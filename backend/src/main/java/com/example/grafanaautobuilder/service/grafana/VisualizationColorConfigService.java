@@ -1,42 +1,115 @@
 package com.example.grafanaautobuilder.service.grafana;
 
+import com.example.grafanaautobuilder.config.GrafanaProperties;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Palette and field defaults from {@code visualization-colors.json}, bundled on the classpath or, with
+ * {@code grafana.colorConfigFile} set, read from that file and re-checked every {@code colorConfigReloadSeconds}.
+ */
 @Service
 public class VisualizationColorConfigService {
+    private static final Logger log = LoggerFactory.getLogger(VisualizationColorConfigService.class);
+
     private final ObjectMapper mapper = new ObjectMapper();
+    private final GrafanaProperties grafanaProperties;
+
+    private volatile Map<String, Object> config;
+    // Bumped on every reload so anything derived from the colors can tell it is stale
+    private volatile long generation;
 
-    private Map<String, Object> config;
+    private final Object reloadLock = new Object();
+    private long modifiedAt;
+    private long checkedAt;
 
-    public VisualizationColorConfigService() {
-        load();
+    public VisualizationColorConfigService(GrafanaProperties grafanaProperties) {
+        this.grafanaProperties = grafanaProperties;
+        this.modifiedAt = fileModifiedAt();
+        this.config = load();
+        this.checkedAt = System.nanoTime();
     }
 
-    private void load() {
+    /** Changes whenever the color config is reloaded. */
+    public long getGeneration() {
+        reloadIfChanged();
+        return generation;
+    }
+
+    private void reloadIfChanged() {
+        int interval = grafanaProperties.getColorConfigReloadSeconds();
+        if (interval <= 0 || isBlank(grafanaProperties.getColorConfigFile())) return;
+        synchronized (reloadLock) {
+            long now = System.nanoTime();
+            if (now - checkedAt < TimeUnit.SECONDS.toNanos(interval)) return;
+            checkedAt = now;
+            long current = fileModifiedAt();
+            if (current == modifiedAt) return;
+            modifiedAt = current;
+            config = load();
+            generation++;
+        }
+    }
+
+    private long fileModifiedAt() {
+        if (isBlank(grafanaProperties.getColorConfigFile())) return 0;
         try {
-            ClassPathResource res = new ClassPathResource("visualization-colors.json");
-            if (!res.exists()) {
-                config = Collections.emptyMap();
-                return;
-            }
-            try (InputStream is = res.getInputStream()) {
-                this.config = mapper.readValue(is, new TypeReference<Map<String, Object>>(){});
-            }
+            return Files.getLastModifiedTime(Paths.get(grafanaProperties.getColorConfigFile())).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> load() {
+        String file = grafanaProperties.getColorConfigFile();
+        Resource res = isBlank(file)
+                ? new ClassPathResource("visualization-colors.json")
+                : new FileSystemResource(file);
+        if (!res.exists()) return Collections.emptyMap();
+        try (InputStream is = res.getInputStream()) {
+            Map<String, Object> parsed = mapper.readValue(is, new TypeReference<LinkedHashMap<String, Object>>(){});
+            return (Map<String, Object>) freeze(parsed);
         } catch (IOException e) {
             // If parsing fails, default to empty to avoid breaking requests
-            this.config = Collections.emptyMap();
+            log.warn("Could not read visualization colors ({}): {}", res.getDescription(), e.getMessage());
+            return Collections.emptyMap();
         }
     }
 
+    // Panels share these trees, so nothing downstream may modify them
+    private static Object freeze(Object node) {
+        if (node instanceof Map<?, ?> map) {
+            Map<String, Object> out = new LinkedHashMap<>();
+            map.forEach((k, v) -> out.put((String) k, freeze(v)));
+            return Collections.unmodifiableMap(out);
+        }
+        if (node instanceof List<?> list) {
+            List<Object> out = new ArrayList<>(list.size());
+            for (Object v : list) out.add(freeze(v));
+            return Collections.unmodifiableList(out);
+        }
+        return node;
+    }
+
+    /** Immutable; shared by every panel. */
     @SuppressWarnings("unchecked")
     public Map<String, Object> getFieldConfigDefaults() {
         Object fc = config.get("fieldConfig");
@@ -46,6 +119,7 @@ public class VisualizationColorConfigService {
         return Collections.emptyMap();
     }
 
+    /** Immutable; shared by every panel. */
     @SuppressWarnings("unchecked")
     public List<Map<String, Object>> getFieldConfigOverrides() {
         Object fc = config.get("fieldConfig");
@@ -66,4 +140,8 @@ public class VisualizationColorConfigService {
         Object t = config.get("theme");
         return t == null ? null : String.valueOf(t);
     }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
 }
@@ -1,5 +1,6 @@
 package com.example.grafanaautobuilder.service.storage;
 
+import com.example.grafanaautobuilder.service.csv.CsvUpload;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -33,7 +34,16 @@ public class SupabaseStorageService {
     private final WebClient webClient = WebClient.builder().build();
 
     public String uploadCsv(Long userId, String username, MultipartFile file) {
-        String safeName = sanitize(file.getOriginalFilename());
+        return uploadCsv(userId, username, file.getOriginalFilename(), file.getContentType(), toBytes(file));
+    }
+
+    // Uploads an already-buffered CSV without reading the multipart file again
+    public String uploadCsv(Long userId, String username, CsvUpload upload) {
+        return uploadCsv(userId, username, upload.getOriginalFilename(), upload.getContentType(), upload.getBytes());
+    }
+
+    private String uploadCsv(Long userId, String username, String originalFilename, String contentType, byte[] bytes) {
+        String safeName = sanitize(originalFilename);
         // Prefer explicit username/email, then numeric userId, else 'anonymous'
         String owner = (username != null && !username.isBlank())
                 ? sanitizePathSegment(username)
@@ -41,9 +51,7 @@ public class SupabaseStorageService {
         // Keep the exact original filename (sanitized), do not prefix with UUID
         String path = "users/" + owner + "/" + safeName;
 
-        byte[] bytes = toBytes(file);
-
-        String ct = file.getContentType();
+        String ct = contentType;
         if (ct == null || ct.isBlank()) {
             ct = "text/csv";
         }
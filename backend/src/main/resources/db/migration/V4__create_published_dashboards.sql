@@ -0,0 +1,10 @@
+-- Dashboards pushed to Grafana, keyed by their stable uid (derived from owner and dashboard name).
+-- The fingerprint is the SHA-256 of the dashboard JSON last sent; identical re-uploads skip the push.
+CREATE TABLE IF NOT EXISTS published_dashboards (
+  uid VARCHAR(40) PRIMARY KEY,
+  owner VARCHAR(255),
+  name VARCHAR(255) NOT NULL,
+  title VARCHAR(255) NOT NULL,
+  fingerprint VARCHAR(64) NOT NULL,
+  updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
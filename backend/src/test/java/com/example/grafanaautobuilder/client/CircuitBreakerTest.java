@@ -0,0 +1,95 @@
+package com.example.grafanaautobuilder.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailuresAndFailsFast() {
+        CircuitBreaker breaker = new CircuitBreaker("Grafana", 3, 60);
+
+        fail(breaker, 2);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        fail(breaker, 1);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        assertThatThrownBy(breaker::acquire)
+                .isInstanceOf(CircuitBreaker.OpenException.class)
+                .hasMessageContaining("Grafana circuit is open after 3 consecutive failures");
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker("Grafana", 3, 60);
+
+        fail(breaker, 2);
+        breaker.acquire();
+        breaker.onSuccess();
+        fail(breaker, 2);
+
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void halfOpenLetsOneTrialThroughAndClosesOnSuccess() {
+        // Zero open time: the next acquire after opening is the trial
+        CircuitBreaker breaker = new CircuitBreaker("Grafana", 1, 0);
+        fail(breaker, 1);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        breaker.acquire();
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThatThrownBy(breaker::acquire)
+                .isInstanceOf(CircuitBreaker.OpenException.class)
+                .hasMessageContaining("trial call is in flight");
+
+        breaker.onSuccess();
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThatCode(breaker::acquire).doesNotThrowAnyException();
+    }
+
+    @Test
+    void failedTrialReopensTheCircuit() {
+        CircuitBreaker breaker = new CircuitBreaker("Grafana", 5, 0);
+        fail(breaker, 5);
+
+        breaker.acquire();
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        // A single failure in half-open is enough, whatever the threshold
+        breaker.onFailure();
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void releaseLetsAnotherTrialRunAfterACancelledOne() {
+        CircuitBreaker breaker = new CircuitBreaker("Grafana", 1, 0);
+        fail(breaker, 1);
+        breaker.acquire();
+
+        breaker.release();
+
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThatCode(breaker::acquire).doesNotThrowAnyException();
+    }
+
+    @Test
+    void nonPositiveThresholdDisablesTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("Grafana", 0, 60);
+
+        fail(breaker, 100);
+
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThatCode(breaker::acquire).doesNotThrowAnyException();
+    }
+
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+    }
+}
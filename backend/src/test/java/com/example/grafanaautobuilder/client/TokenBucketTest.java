@@ -0,0 +1,63 @@
+package com.example.grafanaautobuilder.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void burstIsFreeThenCallersWaitInLine() {
+        TokenBucket bucket = new TokenBucket(1, 2);
+
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isZero();
+        // Each reservation past the burst waits one more period than the one before it
+        long third = bucket.reserve();
+        long fourth = bucket.reserve();
+        assertThat(third).isBetween(SECOND / 2, SECOND);
+        assertThat(fourth).isBetween(third + SECOND / 2, 2 * SECOND);
+    }
+
+    @Test
+    void tokensRefillOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(50, 1);
+
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isPositive();
+        // Five periods: repays the reservation above and refills the burst
+        Thread.sleep(100);
+        assertThat(bucket.reserve()).isZero();
+    }
+
+    @Test
+    void refillIsCappedAtTheBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 3);
+        // Ten periods' worth of refill, but only three tokens fit
+        Thread.sleep(100);
+
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isPositive();
+    }
+
+    @Test
+    void nonPositiveRateIsUnlimited() {
+        TokenBucket bucket = new TokenBucket(0, 1);
+
+        for (int i = 0; i < 1000; i++) assertThat(bucket.reserve()).isZero();
+    }
+
+    @Test
+    void burstIsAtLeastOne() {
+        TokenBucket bucket = new TokenBucket(1, 0);
+
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isPositive();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvRecordBoundariesTest {
+
+    private static final String CSV = "title,query\n"
+            + "a,\"select 1\nfrom t\"\n"
+            + "b,\"say \"\"hi\"\"\nthen\r\nmore\"\r\n"
+            + "c,plain\n"
+            + "d,\"\n\n\"\n"
+            + "e,x\"y\n"
+            + "f,last";
+
+    @Test
+    void endOfFirstRecordSkipsNewlinesInsideQuotes() {
+        byte[] data = bytes(CSV);
+        int header = CsvRecordBoundaries.endOfFirstRecord(data, 0);
+        assertThat(text(data, 0, header)).isEqualTo("title,query\n");
+
+        int first = CsvRecordBoundaries.endOfFirstRecord(data, header);
+        assertThat(text(data, header, first)).isEqualTo("a,\"select 1\nfrom t\"\n");
+
+        int second = CsvRecordBoundaries.endOfFirstRecord(data, first);
+        assertThat(text(data, first, second)).isEqualTo("b,\"say \"\"hi\"\"\nthen\r\nmore\"\r\n");
+    }
+
+    @Test
+    void quoteInsideAnUnquotedFieldDoesNotOpenAValue() {
+        byte[] data = bytes("e,x\"y\nf,z\n");
+        assertThat(CsvRecordBoundaries.endOfFirstRecord(data, 0)).isEqualTo("e,x\"y\n".length());
+    }
+
+    @Test
+    void lastRecordWithoutNewlineEndsAtDataLength() {
+        byte[] data = bytes("f,last");
+        assertThat(CsvRecordBoundaries.endOfFirstRecord(data, 0)).isEqualTo(data.length);
+    }
+
+    @Test
+    void chunksAreContiguousAndEndOnRecordBoundaries() {
+        byte[] data = bytes(CSV);
+        int from = CsvRecordBoundaries.endOfFirstRecord(data, 0);
+        List<Integer> boundaries = recordEnds(data, from);
+
+        for (int target = 1; target <= data.length; target++) {
+            List<int[]> chunks = CsvRecordBoundaries.split(data, from, target);
+
+            assertThat(chunks).isNotEmpty();
+            assertThat(chunks.get(0)[0]).isEqualTo(from);
+            assertThat(chunks.get(chunks.size() - 1)[1]).isEqualTo(data.length);
+            for (int i = 0; i < chunks.size(); i++) {
+                int[] chunk = chunks.get(i);
+                assertThat(chunk[1]).isGreaterThan(chunk[0]);
+                assertThat(boundaries).contains(chunk[1]);
+                if (i > 0) assertThat(chunk[0]).isEqualTo(chunks.get(i - 1)[1]);
+            }
+        }
+    }
+
+    @Test
+    void chunksReachTheTargetSizeBeforeCutting() {
+        byte[] data = bytes("a,1\nb,2\nc,3\nd,4\n");
+        List<int[]> chunks = CsvRecordBoundaries.split(data, 0, 8);
+
+        assertThat(chunks).extracting(c -> text(data, c[0], c[1]))
+                .containsExactly("a,1\nb,2\n", "c,3\nd,4\n");
+    }
+
+    @Test
+    void targetLargerThanDataGivesOneChunk() {
+        byte[] data = bytes(CSV);
+        List<int[]> chunks = CsvRecordBoundaries.split(data, 0, data.length * 2);
+
+        assertThat(chunks).hasSize(1);
+        assertThat(chunks.get(0)).containsExactly(0, data.length);
+    }
+
+    private static List<Integer> recordEnds(byte[] data, int from) {
+        List<Integer> ends = new ArrayList<>();
+        int pos = from;
+        while (pos < data.length) {
+            pos = CsvRecordBoundaries.endOfFirstRecord(data, pos);
+            ends.add(pos);
+        }
+        return ends;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] data, int from, int to) {
+        return new String(data, from, to - from, StandardCharsets.UTF_8);
+    }
+}
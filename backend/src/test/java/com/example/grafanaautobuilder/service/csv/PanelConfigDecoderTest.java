@@ -0,0 +1,106 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import com.example.grafanaautobuilder.config.CsvProperties;
+import com.example.grafanaautobuilder.dto.PanelConfig;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class PanelConfigDecoderTest {
+
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .setTrim(true)
+            .build();
+
+    @Test
+    void decodesColumnsByHeaderName() throws IOException {
+        PanelConfig cfg = decodeFirst("w,title,query,unit,thresholds,h,datasource,color,timeFrom,timeShift\n"
+                + "6,Orders,\"select 1\nfrom t\",percent,80|90,x,pg,#fff,now-1h,1d\n");
+
+        assertThat(cfg.getTitle()).isEqualTo("Orders");
+        assertThat(cfg.getQuery()).isEqualTo("select 1\nfrom t");
+        assertThat(cfg.getUnit()).isEqualTo("percent");
+        assertThat(cfg.getThresholds()).isEqualTo("80|90");
+        assertThat(cfg.getDatasource()).isEqualTo("pg");
+        assertThat(cfg.getColor()).isEqualTo("#fff");
+        assertThat(cfg.getTimeFrom()).isEqualTo("now-1h");
+        assertThat(cfg.getTimeShift()).isEqualTo("1d");
+        assertThat(cfg.getW()).isEqualTo(6);
+        // Not a number
+        assertThat(cfg.getH()).isNull();
+    }
+
+    @Test
+    void visualizationUsesTheFirstNonBlankAlias() throws IOException {
+        String header = "viewType,chart_type,panel_type,visualization\n";
+
+        assertThat(decodeFirst(header + "a,b,c,d\n").getVisualization()).isEqualTo("d");
+        assertThat(decodeFirst(header + "a,b,c,\n").getVisualization()).isEqualTo("c");
+        assertThat(decodeFirst(header + "a,b,,\n").getVisualization()).isEqualTo("b");
+        assertThat(decodeFirst(header + "a,\"  \",,\n").getVisualization()).isEqualTo("a");
+        assertThat(decodeFirst(header + ",,,\n").getVisualization()).isNull();
+    }
+
+    @Test
+    void missingColumnsAndShortRecordsReadAsNull() throws IOException {
+        PanelConfig cfg = decodeFirst("title,query,w\nOnly title\n");
+
+        assertThat(cfg.getTitle()).isEqualTo("Only title");
+        assertThat(cfg.getQuery()).isNull();
+        assertThat(cfg.getW()).isNull();
+        assertThat(cfg.getDatasource()).isNull();
+        assertThat(cfg.getVisualization()).isNull();
+    }
+
+    @Test
+    void parallelParseKeepsFileOrder() throws IOException {
+        StringBuilder csv = new StringBuilder("title,query,visualization,w\n");
+        for (int i = 0; i < 500; i++) {
+            // Multi-line quoted queries put newlines where a naive split would cut
+            csv.append("Panel ").append(i).append(",\"select ").append(i).append("\nfrom \"\"t\"\"\",")
+                    .append(i % 3 == 0 ? "stat" : "timeseries").append(',').append(i % 24).append('\n');
+        }
+        byte[] data = csv.toString().getBytes(StandardCharsets.UTF_8);
+
+        CsvProperties properties = new CsvProperties();
+        properties.getParse().setParallelThresholdBytes(1);
+        properties.getParse().setChunkSizeBytes(256);
+        properties.getParse().setParallelism(4);
+        CsvParsingService service = new CsvParsingService(properties);
+        try {
+            List<PanelConfig> sequential = service.parse(new ByteArrayInputStream(data));
+            List<PanelConfig> parallel = service.parse(data);
+
+            assertThat(sequential).hasSize(500);
+            assertThat(parallel).extracting(PanelConfig::getTitle, PanelConfig::getQuery,
+                            PanelConfig::getVisualization, PanelConfig::getW)
+                    .containsExactlyElementsOf(sequential.stream()
+                            .map(c -> tuple(c.getTitle(), c.getQuery(), c.getVisualization(), c.getW()))
+                            .toList());
+            assertThat(parallel).extracting(PanelConfig::getTitle)
+                    .containsExactlyElementsOf(IntStream.range(0, 500).mapToObj(i -> "Panel " + i).toList());
+            assertThat(parallel.get(0).getQuery()).isEqualTo("select 0\nfrom \"t\"");
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private static PanelConfig decodeFirst(String csv) throws IOException {
+        try (CSVParser parser = FORMAT.parse(new StringReader(csv))) {
+            PanelConfigDecoder decoder = PanelConfigDecoder.forHeader(parser.getHeaderMap());
+            return decoder.decode(parser.iterator().next());
+        }
+    }
+}
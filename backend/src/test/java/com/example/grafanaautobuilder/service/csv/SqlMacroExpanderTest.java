@@ -0,0 +1,129 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SqlMacroExpanderTest {
+
+    // 2023-11-14 22:13:20 UTC to 6 hours later; 21.6 s per data point rounds up to a 30s interval
+    private static final long FROM = 1_700_000_000_000L;
+    private static final long TO = FROM + 6 * 3_600_000L;
+    private static final String TS_FROM = "TIMESTAMP '2023-11-14 22:13:20'";
+    private static final String TS_TO = "TIMESTAMP '2023-11-15 04:13:20'";
+
+    private final SqlMacroExpander.Context ctx =
+            SqlMacroExpander.Context.of(FROM, TO, Map.of("host", "'web-1'", "env", "prod"));
+
+    @Test
+    void timeFilter() {
+        assertThat(expand("select 1 from t where $__timeFilter(created_at)"))
+                .isEqualTo("select 1 from t where created_at BETWEEN " + TS_FROM + " AND " + TS_TO);
+    }
+
+    @Test
+    void timeFromAndTimeTo() {
+        assertThat(expand("$__timeFrom() .. $__timeTo()")).isEqualTo(TS_FROM + " .. " + TS_TO);
+    }
+
+    @Test
+    void timeGroup() {
+        assertThat(expand("$__timeGroup(ts, '5m')")).isEqualTo("floor(extract(epoch from ts)/300)*300");
+        assertThat(expand("$__timeGroup(ts, 1h, 0)")).isEqualTo("floor(extract(epoch from ts)/3600)*3600");
+        assertThat(expand("$__timeGroup(ts, 90)")).isEqualTo("floor(extract(epoch from ts)/90)*90");
+        assertThat(expand("$__timeGroup(ts, $__interval)")).isEqualTo("floor(extract(epoch from ts)/30)*30");
+        // Sub-second intervals group by at least one second
+        assertThat(expand("$__timeGroup(ts, 100ms)")).isEqualTo("floor(extract(epoch from ts)/1)*1");
+    }
+
+    @Test
+    void timeGroupAlias() {
+        assertThat(expand("select $__timeGroupAlias(date_trunc('day', ts), '1d'), count(*)"))
+                .isEqualTo("select floor(extract(epoch from date_trunc('day', ts))/86400)*86400 AS \"time\", count(*)");
+    }
+
+    @Test
+    void unixEpochMacros() {
+        assertThat(expand("$__unixEpochFilter(epoch)"))
+                .isEqualTo("epoch >= 1700000000 AND epoch <= 1700021600");
+        assertThat(expand("$__unixEpochFrom(), $__unixEpochTo()")).isEqualTo("1700000000, 1700021600");
+    }
+
+    @Test
+    void intervalAndRangeVariables() {
+        assertThat(expand("$__interval $__interval_ms")).isEqualTo("30s 30000");
+        assertThat(expand("$__from-$__to")).isEqualTo(FROM + "-" + TO);
+        assertThat(expand("${__interval}")).isEqualTo("30s");
+    }
+
+    @Test
+    void intervalRoundsUpToAReadableStep() {
+        assertThat(SqlMacroExpander.expand("$__interval", SqlMacroExpander.Context.of(0, 3_600_000L, null)))
+                .isEqualTo("5s");
+        assertThat(SqlMacroExpander.expand("$__interval", SqlMacroExpander.Context.of(0, 7 * 86_400_000L, null)))
+                .isEqualTo("15m");
+        assertThat(SqlMacroExpander.expand("$__interval", SqlMacroExpander.Context.of(0, 1000, null)))
+                .isEqualTo("1s");
+        assertThat(SqlMacroExpander.expand("$__interval", SqlMacroExpander.Context.of(0, 10_000 * 86_400_000L, null)))
+                .isEqualTo("1d");
+    }
+
+    @Test
+    void macroNamesMatchCaseInsensitively() {
+        assertThat(expand("$__TIMEFILTER(ts)")).isEqualTo("ts BETWEEN " + TS_FROM + " AND " + TS_TO);
+    }
+
+    @Test
+    void dashboardVariablesInEverySyntax() {
+        assertThat(expand("host = $host and env = '${env}' and e2 = '${env:raw}' and h2 = [[host]]"))
+                .isEqualTo("host = 'web-1' and env = 'prod' and e2 = 'prod' and h2 = 'web-1'");
+    }
+
+    @Test
+    void unknownMacrosAndVariablesAreLeftAsWritten() {
+        String sql = "select $1, $unknown, ${other}, [[missing]], $__unknown(x), $__timeFilter(ts, unclosed";
+        assertThat(expand(sql)).isEqualTo(sql);
+    }
+
+    @Test
+    void nestedParenthesesAndQuotedCommasStayInOneArgument() {
+        assertThat(expand("$__timeFilter(coalesce(a, b))"))
+                .isEqualTo("coalesce(a, b) BETWEEN " + TS_FROM + " AND " + TS_TO);
+        assertThat(expand("$__unixEpochFilter(f(',)'))"))
+                .isEqualTo("f(',)') >= 1700000000 AND f(',)') <= 1700021600");
+    }
+
+    @Test
+    void missingArgumentIsRejected() {
+        assertThatThrownBy(() -> expand("$__timeFilter()"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Macro $__timeFilter is missing argument 1");
+        assertThatThrownBy(() -> expand("$__timeGroup(ts)"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Macro $__timeGroup is missing argument 2");
+    }
+
+    @Test
+    void invalidIntervalIsRejected() {
+        assertThatThrownBy(() -> expand("$__timeGroup(ts, 'soon')"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("Invalid interval");
+        assertThatThrownBy(() -> expand("$__timeGroup(ts, 5y)"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("Invalid interval");
+    }
+
+    @Test
+    void expandStatementTrimsAndDropsTheTrailingSemicolon() {
+        assertThat(SqlMacroExpander.expandStatement("  select $__unixEpochFrom();  \n", ctx))
+                .isEqualTo("select 1700000000");
+        assertThat(SqlMacroExpander.expand(null, ctx)).isNull();
+    }
+
+    private String expand(String sql) {
+        return SqlMacroExpander.expand(sql, ctx);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.grafanaautobuilder.service.csv;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ValidationResultCacheTest {
+
+    @Test
+    void foldsCaseAndWhitespaceAndDropsTheTrailingSemicolon() {
+        assertThat(ValidationResultCache.normalize("  SELECT  a,\n\tB FROM  T ;  "))
+                .isEqualTo("select a, b from t");
+    }
+
+    @Test
+    void lineCommentEndsAtTheNewline() {
+        assertThat(ValidationResultCache.normalize("SELECT 1 -- c\n, 2")).isEqualTo("select 1 , 2");
+        // Without a newline everything after -- is comment
+        assertThat(ValidationResultCache.normalize("select 1 -- c , 2")).isEqualTo("select 1");
+    }
+
+    @Test
+    void blockCommentsNestAsInPostgres() {
+        assertThat(ValidationResultCache.normalize("SELECT /* a /* nested */ b */ x FROM t"))
+                .isEqualTo("select x from t");
+    }
+
+    @Test
+    void dollarQuotedBodiesAreKeptVerbatim() {
+        assertThat(ValidationResultCache.normalize("SELECT  $$A  B$$ , $t$X  $$ y$t$ FROM T;"))
+                .isEqualTo("select $$A  B$$ , $t$X  $$ y$t$ from t");
+        // A $ inside an identifier does not start a dollar quote
+        assertThat(ValidationResultCache.normalize("select a$b$ from t")).isEqualTo("select a$b$ from t");
+    }
+
+    @Test
+    void literalsAndQuotedIdentifiersAreKeptVerbatim() {
+        assertThat(ValidationResultCache.normalize("select E'it\\'s  X' , 'a''B  c' from \"My  T\""))
+                .isEqualTo("select e'it\\'s  X' , 'a''B  c' from \"My  T\"");
+    }
+
+    @Test
+    void grafanaVariablesKeepTheirCase() {
+        assertThat(ValidationResultCache.normalize(
+                "SELECT x FROM t WHERE h = $Host AND ${Var} > $1 AND $__timeFilter(Time)"))
+                .isEqualTo("select x from t where h = $Host and ${Var} > $1 and $__timeFilter(time)");
+    }
+
+    @Test
+    void formattingVariantsShareOneKey() {
+        String a = ValidationResultCache.normalize("SELECT count(*)\nFROM orders -- all of them\nWHERE $__timeFilter(ts);");
+        String b = ValidationResultCache.normalize("select count(*) /* all */ from ORDERS where $__timeFilter(ts)");
+
+        assertThat(a).isEqualTo(b);
+    }
+}
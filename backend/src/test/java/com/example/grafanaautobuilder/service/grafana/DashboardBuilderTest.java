@@ -0,0 +1,103 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.example.grafanaautobuilder.dto.PanelConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DashboardBuilderTest {
+
+    @Test
+    void gridCursorPacksRowsAndWrapsBelowTheTallestPanel() {
+        DashboardBuilder.GridCursor cursor = new DashboardBuilder.GridCursor();
+
+        assertThat(cursor.place(row("a", 8, 4))).isEqualTo(new DashboardBuilder.GridSlot(0, 0, 1));
+        assertThat(cursor.place(row("b", 8, 10))).isEqualTo(new DashboardBuilder.GridSlot(8, 0, 2));
+        assertThat(cursor.place(row("c", 8, 2))).isEqualTo(new DashboardBuilder.GridSlot(16, 0, 3));
+        // Row is full; the next one starts below the 10-high panel
+        assertThat(cursor.place(row("d", null, null))).isEqualTo(new DashboardBuilder.GridSlot(0, 10, 4));
+        // Missing or non-positive sizes default to 12x8
+        assertThat(cursor.place(row("e", 0, -1))).isEqualTo(new DashboardBuilder.GridSlot(12, 10, 5));
+        assertThat(cursor.place(row("f", 24, 3))).isEqualTo(new DashboardBuilder.GridSlot(0, 18, 6));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 5, 64, 200})
+    void panelSinkKeepsRowOrderIdsAndPositionsAcrossTheParallelThreshold(int threshold) {
+        GrafanaProperties properties = new GrafanaProperties();
+        properties.setParallelBuildThreshold(threshold);
+        properties.setPanelBuildParallelism(4);
+        DashboardBuilder builder = new DashboardBuilder(properties);
+        try {
+            List<PanelConfig> rows = new ArrayList<>();
+            for (int i = 0; i < 150; i++) rows.add(row("Panel " + i, 4 + i % 9, 2 + i % 5));
+
+            DashboardBuilder.PanelSink sink = builder.panelSink(echoBuilder());
+            rows.forEach(sink);
+            List<GrafanaPanel> panels = sink.build();
+
+            // Sequential layout of the same rows
+            DashboardBuilder.GridCursor cursor = new DashboardBuilder.GridCursor();
+            List<GrafanaPanel> expected = new ArrayList<>();
+            for (PanelConfig cfg : rows) {
+                DashboardBuilder.GridSlot slot = cursor.place(cfg);
+                expected.add(panel(cfg, slot.x(), slot.y(), slot.id()));
+            }
+            assertThat(panels).containsExactlyElementsOf(expected);
+        } finally {
+            builder.shutdown();
+        }
+    }
+
+    @Test
+    void rowsPastTheThresholdAreBuiltOnlyByBuild() {
+        GrafanaProperties properties = new GrafanaProperties();
+        properties.setParallelBuildThreshold(5);
+        DashboardBuilder builder = new DashboardBuilder(properties);
+        try {
+            PanelJsonBuilder panelBuilder = echoBuilder();
+            DashboardBuilder.PanelSink sink = builder.panelSink(panelBuilder);
+            for (int i = 0; i < 20; i++) sink.accept(row("Panel " + i, null, null));
+
+            verify(panelBuilder, times(5)).buildPanel(any(), anyInt(), anyInt(), anyInt());
+            assertThat(sink.build()).hasSize(20);
+            verify(panelBuilder, times(20)).buildPanel(any(), anyInt(), anyInt(), anyInt());
+        } finally {
+            builder.shutdown();
+        }
+    }
+
+    // Builds a panel that records exactly what it was built from
+    private static PanelJsonBuilder echoBuilder() {
+        PanelJsonBuilder panelBuilder = mock(PanelJsonBuilder.class);
+        when(panelBuilder.buildPanel(any(), anyInt(), anyInt(), anyInt())).thenAnswer(inv ->
+                panel(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2), inv.getArgument(3)));
+        return panelBuilder;
+    }
+
+    private static GrafanaPanel panel(PanelConfig cfg, int x, int y, int id) {
+        return new GrafanaPanel(id, "timeseries", cfg.getTitle(), new GrafanaPanel.GridPos(x, y, 0, 0), null,
+                new GrafanaPanel.Target(null, null, null), null, null, null, Map.of());
+    }
+
+    private static PanelConfig row(String title, Integer w, Integer h) {
+        PanelConfig cfg = new PanelConfig();
+        cfg.setTitle(title);
+        cfg.setW(w);
+        cfg.setH(h);
+        return cfg;
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.grafanaautobuilder.service.grafana;
+
+import com.example.grafanaautobuilder.config.GrafanaProperties;
+import com.example.grafanaautobuilder.dto.PanelConfig;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The payload used to be built as nested HashMaps/LinkedHashMaps and serialized by Jackson. The expected JSON here
+ * is built the same way, so any change in key order or values shows up as a byte difference.
+ */
+class DashboardJsonWriterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String COLORS = "{\"fieldConfig\":{"
+            + "\"defaults\":{\"custom\":{\"lineWidth\":2,\"fillOpacity\":35}},"
+            + "\"overrides\":[{\"matcher\":{\"id\":\"byRegexp\",\"options\":\".*error.*\"},"
+            + "\"properties\":[{\"id\":\"color\",\"value\":{\"fixedColor\":\"red\",\"mode\":\"fixed\"}}]}]},"
+            + "\"palette\":[\"#60A5FA\"]}";
+    private static final String ECHARTS_TEMPLATE = "{\"type\":\"{{visualization}}\",\"title\":\"{{title}}\","
+            + "\"datasource\":{\"uid\":\"template-ds\"},"
+            + "\"targets\":[{\"refId\":\"A\",\"rawSql\":\"{{query}}\"}],"
+            + "\"options\":{\"customColor\":\"#000000\",\"renderer\":\"svg\"},"
+            + "\"pluginVersion\":\"5.0.0\"}";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fallbackPanelMatchesTheMapBasedJson() throws IOException {
+        PanelJsonBuilder builder = builder(Files.createDirectory(dir.resolve("no-templates")));
+        PanelConfig cfg = row("Orders", "pg-main", "select now() as time, count(*) from orders", "stat");
+        cfg.setUnit("percent");
+        cfg.setThresholds("80|90");
+        cfg.setW(6);
+
+        GrafanaPanel panel = builder.buildPanel(cfg, 12, 8, 3);
+
+        Map<String, Object> datasource = hashMap("uid", "pg-main", "type", "postgres");
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("id", 3);
+        expected.put("type", "stat");
+        expected.put("title", "Orders");
+        expected.put("gridPos", hashMap("x", 12, "y", 8, "w", 6, "h", 8));
+        expected.put("transparent", true);
+        expected.put("datasource", datasource);
+        expected.put("targets", List.of(hashMap("refId", "A", "rawQuery", true,
+                "rawSql", "select now() as time, count(*) from orders", "format", "time_series",
+                "datasource", datasource)));
+        Map<String, Object> options = new HashMap<>();
+        options.putAll(hashMap("colorMode", "value", "graphMode", "area", "justifyMode", "auto",
+                "orientation", "auto",
+                "reduceOptions", hashMap("calcs", List.of("lastNotNull"), "fields", "", "values", false),
+                "textMode", "auto"));
+        expected.put("options", options);
+        List<Object> steps = new ArrayList<>();
+        steps.add(hashMap("color", "green", "value", null));
+        steps.add(hashMap("color", "yellow", "value", 80.0));
+        steps.add(hashMap("color", "red", "value", 90.0));
+        expected.put("fieldConfig", mergedFieldConfig(hashMap("unit", "percent", "decimals", 1,
+                "thresholds", hashMap("mode", "absolute", "steps", steps),
+                "color", hashMap("mode", "fixed", "fixedColor", "#60A5FA"))));
+
+        assertThat(write(panel)).isEqualTo(MAPPER.writeValueAsString(expected));
+    }
+
+    @Test
+    void templatePanelMatchesTheMapBasedJson() throws IOException {
+        Path templates = Files.createDirectory(dir.resolve("templates"));
+        Files.writeString(templates.resolve("volkovlabs-echarts-panel.json"), ECHARTS_TEMPLATE);
+        PanelJsonBuilder builder = builder(templates);
+        PanelConfig cfg = row("Revenue", null, "select day, sum(total) from orders group by 1", "echarts");
+        cfg.setColor("#EF4444");
+
+        GrafanaPanel panel = builder.buildPanel(cfg, 0, 16, 7);
+
+        // Template keys keep their place; the rest is appended in the order the old builder put them
+        Map<String, Object> datasource = hashMap("uid", "pg-default", "type", "postgres");
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("type", "volkovlabs-echarts-panel");
+        expected.put("title", "Revenue");
+        expected.put("datasource", datasource);
+        expected.put("targets", List.of(hashMap("refId", "A", "rawQuery", true,
+                "rawSql", "select day, sum(total) from orders group by 1", "format", "table",
+                "datasource", datasource)));
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("customColor", "#EF4444");
+        options.put("renderer", "svg");
+        options.put("useGradient", true);
+        expected.put("options", options);
+        expected.put("pluginVersion", "5.0.0");
+        expected.put("id", 7);
+        expected.put("gridPos", hashMap("x", 0, "y", 16, "w", 12, "h", 8));
+        expected.put("transparent", true);
+        expected.put("fieldConfig", mergedFieldConfig(hashMap("color",
+                hashMap("mode", "fixed", "fixedColor", "#EF4444"))));
+
+        assertThat(write(panel)).isEqualTo(MAPPER.writeValueAsString(expected));
+    }
+
+    @Test
+    void payloadAndFingerprintMatchTheMapBasedJson() throws Exception {
+        PanelJsonBuilder builder = builder(Files.createDirectory(dir.resolve("no-templates")));
+        PanelConfig cfg = row(null, null, null, "table");
+        GrafanaPanel panel = builder.buildPanel(cfg, 0, 0, 1);
+        GrafanaDashboard dashboard = new DashboardBuilder(properties(dir))
+                .buildDashboard("abc123", "Business KPIs", List.of(panel));
+
+        Map<String, Object> expectedPanel = new LinkedHashMap<>();
+        expectedPanel.put("id", 1);
+        expectedPanel.put("type", "table");
+        expectedPanel.put("title", "Panel 1");
+        expectedPanel.put("gridPos", hashMap("x", 0, "y", 0, "w", 12, "h", 8));
+        expectedPanel.put("transparent", true);
+        expectedPanel.put("datasource", hashMap("uid", "pg-default", "type", "postgres"));
+        expectedPanel.put("targets", List.of(hashMap("refId", "A",
+                "datasource", hashMap("uid", "pg-default", "type", "postgres"))));
+        expectedPanel.put("options", new HashMap<>(hashMap("showHeader", true)));
+        // Tables take the palette color like time series
+        expectedPanel.put("fieldConfig", mergedFieldConfig(hashMap("color",
+                hashMap("mode", "fixed", "fixedColor", "#60A5FA"))));
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("uid", "abc123");
+        expected.put("title", "Business KPIs");
+        expected.put("schemaVersion", 38);
+        expected.put("panels", List.of(expectedPanel));
+        expected.put("tags", List.of("business"));
+        expected.put("graphTooltip", 1);
+        expected.put("time", hashMap("from", "now-1y", "to", "now"));
+        expected.put("timepicker", hashMap(
+                "refresh_intervals", Arrays.asList("5s", "10s", "30s", "1m", "5m", "15m", "30m", "1h", "2h", "1d"),
+                "time_options", Arrays.asList("5m", "15m", "1h", "6h", "12h", "24h", "2d", "7d", "30d")));
+        expected.put("templating", hashMap("list", new ArrayList<>()));
+        expected.put("refresh", "1h");
+        expected.put("timezone", "browser");
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("dashboard", expected);
+        payload.put("overwrite", true);
+
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = MAPPER.getFactory().createGenerator(out)) {
+            DashboardJsonWriter.writePayload(gen, dashboard, true);
+        }
+        assertThat(out.toString()).isEqualTo(MAPPER.writeValueAsString(payload));
+
+        byte[] sha = MessageDigest.getInstance("SHA-256").digest(MAPPER.writeValueAsBytes(expected));
+        assertThat(DashboardJsonWriter.fingerprint(dashboard)).isEqualTo(HexFormat.of().formatHex(sha));
+    }
+
+    @Test
+    void presetKeyOrderDoesNotDependOnTheJvm() throws IOException {
+        PanelJsonBuilder builder = builder(Files.createDirectory(dir.resolve("no-templates")));
+        GrafanaPanel panel = builder.buildPanel(row("Latency", null, null, "timeseries"), 0, 0, 1);
+
+        // HashMap order, which unlike Map.of is not salted per JVM
+        assertThat(write(panel)).contains("\"options\":{\"fillOpacity\":12,\"showPoints\":\"auto\","
+                + "\"legend\":{\"placement\":\"bottom\",\"calcs\":[],\"displayMode\":\"list\"},\"spanNulls\":true,"
+                + "\"tooltip\":{\"mode\":\"single\",\"sort\":\"none\"},\"drawStyle\":\"line\","
+                + "\"lineInterpolation\":\"smooth\",\"lineWidth\":2}");
+    }
+
+    // What the old mergeWithGlobalFieldConfig made of the row's defaults
+    private static Map<String, Object> mergedFieldConfig(Map<String, Object> rowDefaults) throws IOException {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> colors = MAPPER.readValue(COLORS, Map.class);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> global = (Map<String, Object>) colors.get("fieldConfig");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> defaults = new HashMap<>((Map<String, Object>) global.get("defaults"));
+        defaults.putAll(rowDefaults);
+        List<Object> overrides = new ArrayList<>();
+        overrides.addAll((List<?>) global.get("overrides"));
+        Map<String, Object> out = new HashMap<>();
+        out.put("defaults", defaults);
+        out.put("overrides", overrides);
+        return out;
+    }
+
+    private PanelJsonBuilder builder(Path templates) throws IOException {
+        GrafanaProperties properties = properties(dir);
+        properties.setPanelTemplateDir(templates.toString());
+        return new PanelJsonBuilder(properties, new VisualizationColorConfigService(properties),
+                new PanelTemplateRegistry(properties), new PanelCache(properties, new SimpleMeterRegistry()));
+    }
+
+    private static GrafanaProperties properties(Path dir) throws IOException {
+        Path colors = dir.resolve("visualization-colors.json");
+        if (!Files.exists(colors)) Files.writeString(colors, COLORS, StandardCharsets.UTF_8);
+        GrafanaProperties properties = new GrafanaProperties();
+        properties.setDefaultDatasourceUid("pg-default");
+        properties.setDefaultDatasourceType("postgres");
+        properties.setColorConfigFile(colors.toString());
+        return properties;
+    }
+
+    private static PanelConfig row(String title, String datasource, String query, String visualization) {
+        PanelConfig cfg = new PanelConfig();
+        cfg.setTitle(title);
+        cfg.setDatasource(datasource);
+        cfg.setQuery(query);
+        cfg.setVisualization(visualization);
+        return cfg;
+    }
+
+    private static String write(GrafanaPanel panel) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = MAPPER.getFactory().createGenerator(out)) {
+            DashboardJsonWriter.writePanel(gen, panel);
+        }
+        return out.toString();
+    }
+
+    // A HashMap filled in argument order, as the old builder filled its maps
+    private static Map<String, Object> hashMap(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        return map;
+    }
+}